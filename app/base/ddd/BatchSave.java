@@ -0,0 +1,111 @@
+package base.ddd;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+import play.*;
+import play.db.jpa.*;
+
+import base.metrics.*;
+import base.metrics.Metrics.Kind;
+
+/**
+ * GenericModelsの一括保存
+ * <p>
+ * 仕様確認（isSatisfied）を満たしたエンティティのみ保存し、
+ * 読み取り専用で読み込まれたエンティティは保存しない。
+ * 管理下のエンティティは save() と同じく、カスケード保存の関連エンティティの変更も保存する。
+ * 指定件数ごとにフラッシュ・クリアすることで永続化コンテキストを一定の大きさに保つ。
+ * JDBCバッチを有効にするには hibernate.jdbc.batch_size（必要に応じて hibernate.order_inserts /
+ * hibernate.order_updates）を設定すること。
+ * クリアにより、呼び出し前に読み込んだエンティティも永続化コンテキストから切り離される。
+ * </p>
+ */
+final class BatchSave {
+    
+    //フラッシュ間隔の既定値
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    
+    private BatchSave() {}
+    
+    /** フラッシュ間隔（hibernate.jdbc.batch_size の設定値） */
+    static int defaultBatchSize() {
+        final String value = Play.configuration.getProperty("hibernate.jdbc.batch_size");
+        return value != null ? Integer.parseInt(value.trim()) : DEFAULT_BATCH_SIZE;
+    }
+    
+    /** 一括保存 */
+    static BatchSaveResult saveAll(final Iterable<? extends GenericModels> entities,
+                                   final int batchSize) {
+        if (entities == null || batchSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        final EntityManager em = JPA.em();
+        final BatchSaveResult result = new BatchSaveResult();
+        //フラッシュ待ちの更新対象（フラッシュ後にwillBeSavedを戻す）
+        final Set<JPABase> updated = Collections.newSetFromMap(new IdentityHashMap<JPABase, Boolean>());
+        int pending = 0;
+        for (final GenericModels entity : entities) {
+            //読み取り専用・仕様を満たさないエンティティは保存せずに記録する
+            try {
+                entity.assertWritable();
+            }
+            catch (final IllegalStateException e) {
+                result.reject(entity, e);
+                continue;
+            }
+            final long start = Metrics.start();
+            try {
+                entity.isSatisfied();
+            }
+            catch (final RuntimeException e) {
+                result.reject(entity, e);
+                continue;
+            }
+            finally {
+                Metrics.stop(Kind.SATISFY, entity.getClass(), start);
+            }
+            if (em.contains(entity)) {
+                markUpdated(entity, updated);
+            }
+            else if (entity.id() == null) {
+                em.persist(entity);
+                PlayPlugin.postEvent("JPASupport.objectPersisted", entity);
+            }
+            else {
+                markUpdated(em.merge(entity), updated);
+            }
+            result.saved++;
+            if (++pending >= batchSize) {
+                flushAndClear(em, updated);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            flushAndClear(em, updated);
+        }
+        result.finish();
+        return result;
+    }
+    
+    /** エンティティとカスケード保存の関連エンティティを更新対象とする（JPABase.save()と同様） */
+    private static void markUpdated(final GenericModels entity, final Set<JPABase> updated) {
+        for (final JPABase target : ChangeTracking.cascadeTargets(entity)) {
+            if (updated.add(target)) {
+                target.willBeSaved = true;
+                PlayPlugin.postEvent("JPASupport.objectUpdated", target);
+            }
+        }
+    }
+    
+    /** フラッシュ後に永続化コンテキストをクリア */
+    private static void flushAndClear(final EntityManager em, final Set<JPABase> updated) {
+        em.flush();
+        for (final JPABase entity : updated) {
+            entity.willBeSaved = false;
+        }
+        updated.clear();
+        em.clear();
+    }
+}
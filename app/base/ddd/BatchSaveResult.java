@@ -0,0 +1,78 @@
+package base.ddd;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** 一括保存結果 */
+public class BatchSaveResult {
+    
+    //保存件数
+    int saved;
+    //仕様を満たさず保存しなかったエンティティ
+    private final List<Rejection> rejected = new ArrayList<Rejection>();
+    //開始・終了時刻（ナノ秒）
+    private final long start = System.nanoTime();
+    private long end;
+    
+    /** 保存件数 */
+    public int saved() {
+        return saved;
+    }
+    
+    /** 仕様を満たさず保存しなかったエンティティ一覧 */
+    public List<Rejection> rejected() {
+        return Collections.unmodifiableList(rejected);
+    }
+    
+    /** 処理時間（ミリ秒） */
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(end - start);
+    }
+    
+    /** スループット（保存件数／秒） */
+    public double throughput() {
+        final long elapsed = end - start;
+        return elapsed > 0 ? saved * (double) TimeUnit.SECONDS.toNanos(1) / elapsed : 0;
+    }
+    
+    /** 不採用の記録 */
+    void reject(final GenericModels entity, final RuntimeException cause) {
+        rejected.add(new Rejection(entity, cause));
+    }
+    
+    /** 処理終了 */
+    void finish() {
+        end = System.nanoTime();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("saved=%d, rejected=%d, elapsed=%dms, throughput=%.1f/s",
+                             saved,
+                             rejected.size(),
+                             elapsedMillis(),
+                             throughput());
+    }
+    
+    /** 仕様を満たさなかったエンティティ */
+    public static class Rejection {
+        private final GenericModels entity;
+        private final RuntimeException cause;
+        
+        //コンストラクタ
+        Rejection(final GenericModels entity, final RuntimeException cause) {
+            this.entity = entity;
+            this.cause = cause;
+        }
+        
+        /** エンティティ */
+        public GenericModels entity() {
+            return entity;
+        }
+        
+        /** isSatisfiedが送出した例外 */
+        public RuntimeException cause() {
+            return cause;
+        }
+    }
+}
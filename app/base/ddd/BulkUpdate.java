@@ -0,0 +1,126 @@
+package base.ddd;
+
+import java.io.*;
+import java.util.*;
+
+import org.hibernate.*;
+import org.hibernate.engine.*;
+import org.hibernate.persister.entity.*;
+import org.hibernate.type.*;
+import org.joda.time.*;
+import org.joda.time.contrib.hibernate.*;
+
+/**
+ * GenericModelsの一括更新
+ * <p>
+ * エンティティを読み込まず、集合指向のUPDATE文1回（ID指定時はIN句の件数ごとに1回）で
+ * 無効フラグ・更新日時・楽観ロックバージョンを更新する。
+ * 更新前に保存（save()）済みの変更をフラッシュし、更新後は読み込み済みの更新対象をDBから再読み込みする。
+ * 再読み込みしたエンティティは管理下のまま保存できるが、save() していない変更は破棄される。
+ * </p>
+ */
+final class BulkUpdate {
+    
+    //IN句に指定するIDの最大件数
+    private static final int IN_LIMIT = 1000;
+    //更新日時の型
+    static final Type DATE_TIME = new CustomType(new PersistentDateTime());
+    
+    private BulkUpdate() {}
+    
+    /** ID指定で無効フラグを更新 */
+    static int updateByIds(final Class<? extends GenericModels> entityClass,
+                           final int isDisable,
+                           final Collection<Long> ids) {
+        if (entityClass == null || ids == null) {
+            throw new IllegalArgumentException();
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final Session session = GenericModels.session();
+        //保存済みの変更を更新前に書き込む
+        session.flush();
+        final String hql = updateClause(entityClass) + " and id in (:ids)";
+        final DateTime now = new DateTime();
+        final List<Long> list = new ArrayList<Long>(ids);
+        int count = 0;
+        for (int from = 0; from < list.size(); from += IN_LIMIT) {
+            count += session.createQuery(hql)
+                            .setInteger("isDisable", isDisable)
+                            .setParameter("modifyDate", now, DATE_TIME)
+                            .setParameterList("ids", list.subList(from, Math.min(from + IN_LIMIT, list.size())))
+                            .executeUpdate();
+        }
+        refresh(session, entityClass, isDisable, new HashSet<Long>(list));
+        return count;
+    }
+    
+    /** JPQL条件指定で無効フラグを更新（条件中のパラメータは ?1, ?2 ... で指定） */
+    static int updateWhere(final Class<? extends GenericModels> entityClass,
+                           final int isDisable,
+                           final String where,
+                           final Object... params) {
+        if (entityClass == null || where == null) {
+            throw new IllegalArgumentException();
+        }
+        final Session session = GenericModels.session();
+        //保存済みの変更を更新前に書き込む
+        session.flush();
+        final Query query = session.createQuery(updateClause(entityClass) + " and (" + where + ")")
+                                   .setInteger("isDisable", isDisable)
+                                   .setParameter("modifyDate", new DateTime(), DATE_TIME);
+        for (int i = 0; params != null && i < params.length; i++) {
+            query.setParameter(String.valueOf(i + 1), params[i]);
+        }
+        final int count = query.executeUpdate();
+        refresh(session, entityClass, isDisable, null);
+        return count;
+    }
+    
+    /** UPDATE文（既に同じ状態の行はバージョンを進めないよう対象外とする） */
+    private static String updateClause(final Class<? extends GenericModels> entityClass) {
+        return "update " + entityClass.getName()
+                + " set isDisable = :isDisable, modifyDate = :modifyDate, version = version + 1"
+                + " where isDisable <> :isDisable";
+    }
+    
+    /**
+     * 読み込み済みの更新対象を再読み込みし、二次キャッシュから除外（idsがnullの場合はクラス単位）
+     * <p>
+     * 既に同じ状態の行は更新されないため、無効フラグが更新後の値と異なるエンティティのみ再読み込みする。
+     * </p>
+     */
+    private static void refresh(final Session session,
+                                final Class<? extends GenericModels> entityClass,
+                                final int isDisable,
+                                final Set<Long> ids) {
+        final PersistenceContext context = ((SessionImplementor) session).getPersistenceContext();
+        final List<GenericModels> targets = new ArrayList<GenericModels>();
+        for (final Object o : context.getEntitiesByKey().values()) {
+            if (entityClass.isInstance(o) == false) {
+                continue;
+            }
+            final GenericModels entity = (GenericModels) o;
+            if (entity.isDisable() != (isDisable == GenericModels.DISABLE)
+                    && (ids == null || ids.contains(entity.id()))) {
+                targets.add(entity);
+            }
+        }
+        for (final GenericModels entity : targets) {
+            session.refresh(entity);
+        }
+        final EntityPersister persister = ((SessionImplementor) session).getFactory()
+                                                                        .getEntityPersister(entityClass.getName());
+        if (persister.hasCache()) {
+            if (ids == null) {
+                session.getSessionFactory().getCache().evictEntityRegion(entityClass);
+            }
+            else {
+                for (final Serializable id : ids) {
+                    session.getSessionFactory().getCache().evictEntity(entityClass, id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package base.ddd;
+
+import java.lang.annotation.*;
+
+/**
+ * 二次キャッシュ対象エンティティ
+ * <p>
+ * GenericModelsを継承したエンティティに付与すると、findById等の主キー検索結果を
+ * プロセス内キャッシュ（EntityCache）に保持する。
+ * 更新・無効化・一括更新時にはキャッシュから除去される。無効（isDisable）の行は保持しない。
+ * application.conf で playbase.cache.enabled=true を設定した場合のみ有効。
+ * </p>
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+    
+    /** 最大保持件数（超過時は最も参照の古いものから破棄） */
+    int maxSize() default 1000;
+    
+    /** 保持期間（秒） */
+    int ttl() default 600;
+    
+}
@@ -0,0 +1,18 @@
+package base.ddd;
+
+import java.lang.annotation.*;
+
+/**
+ * 変更追跡対象エンティティ
+ * <p>
+ * GenericModelsを継承したエンティティに付与すると、読み込み時点から変更のないエンティティの
+ * save() は仕様確認（isSatisfied）・UPDATE文の発行を行わずに終了する。
+ * カスケード保存（CascadeType.ALL・PERSIST）の関連エンティティに変更・追加がある場合は、通常どおり保存する。
+ * 変更がある場合は、変更されたカラムのみをUPDATE文で更新する（dynamicUpdate）。
+ * </p>
+ * @see GenericModels#changedFields()
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ChangeTracked {}
@@ -0,0 +1,252 @@
+package base.ddd;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+import javax.persistence.*;
+
+import org.hibernate.collection.*;
+import org.hibernate.engine.EntityEntry;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.engine.Status;
+import org.hibernate.persister.entity.*;
+import org.hibernate.proxy.*;
+import org.hibernate.type.*;
+
+import play.db.jpa.*;
+
+/**
+ * エンティティの変更検出
+ * <p>
+ * 永続化コンテキストが保持する読み込み時点の値と現在の値を、このエンティティについてのみ比較する。
+ * セッション全体のフラッシュ（全エンティティのダーティチェック）は行わない。
+ * </p>
+ */
+final class ChangeTracking {
+    
+    //クラスごとのカスケード保存対象の関連フィールド
+    private static final ClassValue<Field[]> CASCADED = new ClassValue<Field[]>() {
+        
+        @Override
+        protected Field[] computeValue(final Class<?> type) {
+            return collectCascaded(type);
+        }
+    };
+    
+    private ChangeTracking() {}
+    
+    /**
+     * 変更されたプロパティ名
+     * @return 永続化コンテキストで管理されていない（新規・切り離し済み）場合はnull
+     */
+    static Set<String> changedProperties(final GenericModels entity) {
+        final SessionImplementor session = (SessionImplementor) GenericModels.session();
+        final EntityEntry entry = session.getPersistenceContext().getEntry(entity);
+        if (entry == null || entry.getStatus() != Status.MANAGED || entry.getLoadedState() == null) {
+            return null;
+        }
+        
+        final EntityPersister persister = entry.getPersister();
+        final Object[] loaded = entry.getLoadedState();
+        final Object[] current = persister.getPropertyValues(entity, session.getEntityMode());
+        final String[] names = persister.getPropertyNames();
+        final Set<String> changed = new LinkedHashSet<String>();
+        final int[] dirty = persister.findDirty(current, loaded, entity, session);
+        if (dirty != null) {
+            for (final int i : dirty) {
+                changed.add(names[i]);
+            }
+        }
+        
+        //コレクションは要素の追加・削除、または差し替えを変更とみなす
+        final Type[] types = persister.getPropertyTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].isCollectionType() == false) {
+                continue;
+            }
+            final Object value = current[i];
+            final boolean collectionChanged = value instanceof PersistentCollection
+                    ? ((PersistentCollection) value).isDirty()
+                    : value != loaded[i];
+            if (collectionChanged) {
+                changed.add(names[i]);
+            }
+        }
+        return changed;
+    }
+    
+    /**
+     * 保存を省略できるかどうか
+     * <p>
+     * @ChangeTracked かつ管理下で、自身とカスケード保存の対象（save()が保存する関連エンティティ）のいずれにも変更がない場合のみ省略できる。
+     * </p>
+     */
+    static boolean isUnchanged(final GenericModels entity) {
+        if (entity.getClass().isAnnotationPresent(ChangeTracked.class) == false) {
+            return false;
+        }
+        return isUnchanged(entity, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+    }
+    
+    //関連をたどって変更がないかどうか（初期化されていない関連は変更されていない）
+    private static boolean isUnchanged(final GenericModels entity, final Set<Object> visited) {
+        if (visited.add(entity) == false) {
+            return true;
+        }
+        final Set<String> changed = changedProperties(entity);
+        if (changed == null || changed.isEmpty() == false) {
+            return false;
+        }
+        for (final Field field : CASCADED.get(entity.getClass())) {
+            for (final Object value : associated(read(field, entity))) {
+                final Object associated = unproxy(value);
+                if (associated == null) {
+                    continue;
+                }
+                //GenericModels以外は変更を判定できないため、保存を省略しない
+                if (associated instanceof GenericModels == false
+                        || isUnchanged((GenericModels) associated, visited) == false) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * カスケード保存の対象となるエンティティ（自身を含む）
+     * <p>
+     * JPABase.save()と同じく、CascadeType.ALL・PERSISTの関連のうち初期化済みのものを再帰的にたどる。
+     * </p>
+     */
+    static List<JPABase> cascadeTargets(final JPABase entity) {
+        final List<JPABase> targets = new ArrayList<JPABase>();
+        collectTargets(entity, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()), targets);
+        return targets;
+    }
+    
+    private static void collectTargets(final JPABase entity, final Set<Object> visited, final List<JPABase> targets) {
+        if (visited.add(entity) == false) {
+            return;
+        }
+        targets.add(entity);
+        for (final Field field : CASCADED.get(entity.getClass())) {
+            for (final Object value : associated(read(field, entity))) {
+                final Object associated = unproxy(value);
+                if (associated instanceof JPABase) {
+                    collectTargets((JPABase) associated, visited, targets);
+                }
+            }
+        }
+    }
+    
+    /**
+     * カスケード保存の関連に登録済みのエンティティ（IDあり・未初期化のプロキシ）を含むかどうか
+     * <p>
+     * 登録済みのエンティティは別のセッションで persist できないため、遅延保存の可否の判定に用いる。
+     * </p>
+     */
+    static boolean cascadesToPersisted(final JPABase entity) {
+        return cascadesToPersisted(entity, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+    }
+    
+    private static boolean cascadesToPersisted(final JPABase entity, final Set<Object> visited) {
+        if (visited.add(entity) == false) {
+            return false;
+        }
+        for (final Field field : CASCADED.get(entity.getClass())) {
+            for (final Object value : associated(read(field, entity))) {
+                final Object associated = unproxy(value);
+                //未初期化のプロキシは登録済み
+                if (value instanceof HibernateProxy && associated == null) {
+                    return true;
+                }
+                if (associated instanceof JPABase
+                        && (((JPABase) associated)._key() != null
+                        || cascadesToPersisted((JPABase) associated, visited))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /** 関連エンティティ一覧（未初期化のコレクションは空） */
+    private static Collection<?> associated(final Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (value instanceof PersistentCollection && ((PersistentCollection) value).wasInitialized() == false) {
+            return Collections.emptyList();
+        }
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).values();
+        }
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        }
+        return Collections.singletonList(value);
+    }
+    
+    /** プロキシの実体（未初期化の場合はnull） */
+    private static Object unproxy(final Object value) {
+        if (value instanceof HibernateProxy) {
+            final LazyInitializer initializer = ((HibernateProxy) value).getHibernateLazyInitializer();
+            return initializer.isUninitialized() ? null : initializer.getImplementation();
+        }
+        return value;
+    }
+    
+    private static Object read(final Field field, final Object obj) {
+        try {
+            return field.get(obj);
+        }
+        catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /** カスケード保存対象の関連フィールド（JPABase.save()と同じく、CascadeType.ALL・PERSISTの関連） */
+    private static Field[] collectCascaded(final Class<?> type) {
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (final Field field : clazz.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                if (isCascaded(cascade(field))) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+    
+    private static CascadeType[] cascade(final Field field) {
+        if (field.isAnnotationPresent(OneToOne.class)) {
+            return field.getAnnotation(OneToOne.class).cascade();
+        }
+        if (field.isAnnotationPresent(OneToMany.class)) {
+            return field.getAnnotation(OneToMany.class).cascade();
+        }
+        if (field.isAnnotationPresent(ManyToOne.class)) {
+            return field.getAnnotation(ManyToOne.class).cascade();
+        }
+        if (field.isAnnotationPresent(ManyToMany.class)) {
+            return field.getAnnotation(ManyToMany.class).cascade();
+        }
+        return new CascadeType[0];
+    }
+    
+    private static boolean isCascaded(final CascadeType[] types) {
+        for (final CascadeType type : types) {
+            if (type == CascadeType.ALL || type == CascadeType.PERSIST) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+}
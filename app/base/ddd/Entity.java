@@ -1,14 +1,20 @@
 package base.ddd;
 
+import java.io.*;
+
 import javax.persistence.*;
 
-import org.apache.commons.lang3.builder.*;
 import org.hibernate.proxy.*;
 
 /** DDDエンティティ抽象基底クラス */
 @MappedSuperclass
 public abstract class Entity<T extends GenericModels> extends GenericModels {
     
+    /** toStringAllで展開する関連エンティティの既定階層数 */
+    public static final int TO_STRING_MAX_DEPTH = 1;
+    /** toStringAllで出力するコレクション要素の既定件数 */
+    public static final int TO_STRING_MAX_ELEMENTS = 10;
+    
     /** エンティティが同一かどうか */
     public boolean sameIdentityAs(final T other) {
         if (id() == null) {
@@ -38,7 +44,7 @@ public abstract class Entity<T extends GenericModels> extends GenericModels {
         return sameIdentityAs(other);
     }
     
-    private Class getClassObj(final Object obj) {
+    static Class getClassObj(final Object obj) {
         //HibernateによりJavassistで修正された元エンティティのクラス名取得
         //参考：http://stackoverflow.com/questions/1139611/loading-javassist-ed-hibernate-entity
         return obj instanceof HibernateProxy
@@ -51,8 +57,43 @@ public abstract class Entity<T extends GenericModels> extends GenericModels {
         return id.hashCode();
     }
     
+    /**
+     * 全フィールドの文字列表現
+     * <p>
+     * 未初期化の関連エンティティ・コレクションはロードせずに出力する。
+     * </p>
+     * @see #toStringAll(Appendable, int, int)
+     */
     public String toStringAll() {
-        return ReflectionToStringBuilder.toString(this,
-                                                  ToStringStyle.SHORT_PREFIX_STYLE);
+        final StringBuilder sb = new StringBuilder();
+        try {
+            toStringAll(sb);
+        }
+        catch (final IOException e) {
+            //StringBuilderでは発生しない
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+    
+    /** 全フィールドの文字列表現を出力（既定の階層数・件数） */
+    public void toStringAll(final Appendable out) throws IOException {
+        toStringAll(out, TO_STRING_MAX_DEPTH, TO_STRING_MAX_ELEMENTS);
+    }
+    
+    /**
+     * 全フィールドの文字列表現を出力
+     * <p>
+     * 未初期化のプロキシはクラス名とIDのみ、未初期化のコレクションは&lt;uninitialized&gt;と出力し、
+     * 遅延ロードのクエリを発行しない。
+     * </p>
+     * @param out 出力先
+     * @param maxDepth 関連エンティティを展開する階層数（超えた場合・循環参照はクラス名とIDのみ）
+     * @param maxElements コレクション・配列・Mapの出力件数（超えた分は件数のみ）
+     */
+    public void toStringAll(final Appendable out,
+                            final int maxDepth,
+                            final int maxElements) throws IOException {
+        new EntityFormatter(out, maxDepth, maxElements).format(this);
     }
 }
@@ -0,0 +1,403 @@
+package base.ddd;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.hibernate.cache.*;
+import org.hibernate.cache.access.*;
+import org.hibernate.cache.entry.*;
+import org.hibernate.ejb.*;
+import org.hibernate.metadata.*;
+
+import play.db.jpa.*;
+
+/**
+ * エンティティ二次キャッシュ（LRU・保持期間付きのプロセス内キャッシュ）
+ * <p>
+ * Hibernateの二次キャッシュ領域として EntityCacheRegionFactory から生成される。
+ * 領域はエンティティごとに1つで、@Cached の設定値で件数・期間が決まる。
+ * 更新時は値を書き換えずに除去する（NONSTRICT_READ_WRITE）。無効（isDisable）の行は保持しない。
+ * </p>
+ */
+public class EntityCache implements EntityRegion {
+    
+    //生成済みのキャッシュ（キーはエンティティのクラス名）
+    private static final ConcurrentMap<String, EntityCache> CACHES = new ConcurrentHashMap<String, EntityCache>();
+    
+    private final String regionName;
+    private final long ttlMillis;
+    private final CacheDataDescription metadata;
+    //エンティティ名ごとの isDisable の属性位置
+    private final ConcurrentMap<String, Integer> disableIndexes = new ConcurrentHashMap<String, Integer>();
+    //最も参照の古い順に並ぶ
+    private final LinkedHashMap<Object, Element> elements;
+    
+    //統計
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    
+    //コンストラクタ
+    EntityCache(final String regionName, final int maxSize, final long ttlMillis, final CacheDataDescription metadata) {
+        this.regionName = regionName;
+        this.ttlMillis = ttlMillis;
+        this.metadata = metadata;
+        this.elements = new LinkedHashMap<Object, Element>(16, 0.75f, true) {
+            
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Object, Element> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /** エンティティのキャッシュ（キャッシュ対象でなければnull） */
+    public static EntityCache of(final Class<? extends GenericModels> clazz) {
+        return CACHES.get(clazz.getName());
+    }
+    
+    //生成済みキャッシュとして登録
+    static void register(final String className, final EntityCache cache) {
+        CACHES.put(className, cache);
+    }
+    
+    // 統計 -------------------------------------
+    
+    /** ヒット数 */
+    public long hitCount() {
+        return hits.get();
+    }
+    
+    /** ミス数 */
+    public long missCount() {
+        return misses.get();
+    }
+    
+    /** 件数超過による破棄数 */
+    public long evictionCount() {
+        return evictions.get();
+    }
+    
+    /** ヒット率 */
+    public double hitRatio() {
+        final long hit = hits.get();
+        final long total = hit + misses.get();
+        return total > 0 ? (double) hit / total : 0;
+    }
+    
+    /** 統計をリセット */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s: size=%d, hit=%d, miss=%d, eviction=%d",
+                             regionName,
+                             getElementCountInMemory(),
+                             hitCount(),
+                             missCount(),
+                             evictionCount());
+    }
+    
+    /** 全件除去 */
+    public void clear() {
+        synchronized (elements) {
+            elements.clear();
+        }
+    }
+    
+    // 要素の操作 -------------------------------------
+    
+    Object get(final Object key) {
+        final Object value;
+        synchronized (elements) {
+            final Element element = elements.get(key);
+            if (element != null && element.isExpired()) {
+                elements.remove(key);
+                value = null;
+            }
+            else {
+                value = element != null ? element.value : null;
+            }
+        }
+        (value != null ? hits : misses).incrementAndGet();
+        return value;
+    }
+    
+    boolean put(final Object key, final Object value) {
+        //無効の行は保持しない
+        if (isDisabled(value)) {
+            remove(key);
+            return false;
+        }
+        synchronized (elements) {
+            //より新しいバージョンを保持していれば上書きしない
+            final Element current = elements.get(key);
+            if (current != null && current.isExpired() == false && isNewer(current.value, value)) {
+                return false;
+            }
+            elements.put(key, new Element(value, System.currentTimeMillis() + ttlMillis));
+            return true;
+        }
+    }
+    
+    void remove(final Object key) {
+        synchronized (elements) {
+            elements.remove(key);
+        }
+    }
+    
+    // EntityRegion -------------------------------------
+    
+    @Override
+    public EntityRegionAccessStrategy buildAccessStrategy(final AccessType accessType) throws CacheException {
+        if (accessType != AccessType.NONSTRICT_READ_WRITE) {
+            throw new CacheException("対応していないアクセス方式です：" + accessType);
+        }
+        return new NonstrictAccess();
+    }
+    
+    @Override
+    public boolean isTransactionAware() {
+        return false;
+    }
+    
+    @Override
+    public CacheDataDescription getCacheDataDescription() {
+        return metadata;
+    }
+    
+    @Override
+    public String getName() {
+        return regionName;
+    }
+    
+    @Override
+    public void destroy() throws CacheException {
+        clear();
+        CACHES.values().remove(this);
+    }
+    
+    @Override
+    public boolean contains(final Object key) {
+        synchronized (elements) {
+            final Element element = elements.get(key);
+            return element != null && element.isExpired() == false;
+        }
+    }
+    
+    @Override
+    public long nextTimestamp() {
+        return Timestamper.next();
+    }
+    
+    @Override
+    public int getTimeout() {
+        return Timestamper.ONE_MS * 60000;
+    }
+    
+    @Override
+    public long getSizeInMemory() {
+        return -1;
+    }
+    
+    @Override
+    public long getElementCountInMemory() {
+        synchronized (elements) {
+            return elements.size();
+        }
+    }
+    
+    @Override
+    public long getElementCountOnDisk() {
+        return 0;
+    }
+    
+    @Override
+    public Map<Object, Object> toMap() {
+        final Map<Object, Object> map = new HashMap<Object, Object>();
+        synchronized (elements) {
+            for (final Map.Entry<Object, Element> entry : elements.entrySet()) {
+                if (entry.getValue().isExpired() == false) {
+                    map.put(entry.getKey(), entry.getValue().value);
+                }
+            }
+        }
+        return map;
+    }
+    
+    //無効の行かどうか
+    private boolean isDisabled(final Object value) {
+        if (value instanceof CacheEntry == false) {
+            return false;
+        }
+        final CacheEntry entry = (CacheEntry) value;
+        final int index = disableIndex(entry.getSubclass());
+        return index >= 0 && GenericModels.DISABLE.equals(entry.getDisassembledState()[index]);
+    }
+    
+    //キャッシュ値（分解済みの属性値）における isDisable の位置
+    private int disableIndex(final String entityName) {
+        Integer index = disableIndexes.get(entityName);
+        if (index == null) {
+            index = -1;
+            final ClassMetadata classMetadata = ((HibernateEntityManagerFactory) JPA.entityManagerFactory).getSessionFactory()
+                                                                                                        .getClassMetadata(entityName);
+            final String[] names = classMetadata != null ? classMetadata.getPropertyNames() : new String[0];
+            for (int i = 0; i < names.length; i++) {
+                if ("isDisable".equals(names[i])) {
+                    index = i;
+                }
+            }
+            disableIndexes.put(entityName, index);
+        }
+        return index;
+    }
+    
+    //保持中の値の方が新しいバージョンかどうか
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static boolean isNewer(final Object current, final Object value) {
+        if (current instanceof CacheEntry && value instanceof CacheEntry) {
+            final Object currentVersion = ((CacheEntry) current).getVersion();
+            final Object version = ((CacheEntry) value).getVersion();
+            if (currentVersion instanceof Comparable && version != null) {
+                return ((Comparable) currentVersion).compareTo(version) > 0;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 更新時に除去するアクセス方式
+     * <p>
+     * ロックは取らず、更新・削除時（およびその完了後）に要素を除去する。次回の読み込みで改めて保持される。
+     * </p>
+     */
+    private class NonstrictAccess implements EntityRegionAccessStrategy {
+        
+        @Override
+        public EntityRegion getRegion() {
+            return EntityCache.this;
+        }
+        
+        @Override
+        public Object get(final Object key, final long txTimestamp) throws CacheException {
+            return EntityCache.this.get(key);
+        }
+        
+        @Override
+        public boolean putFromLoad(final Object key,
+                                   final Object value,
+                                   final long txTimestamp,
+                                   final Object version) throws CacheException {
+            return put(key, value);
+        }
+        
+        @Override
+        public boolean putFromLoad(final Object key,
+                                   final Object value,
+                                   final long txTimestamp,
+                                   final Object version,
+                                   final boolean minimalPutOverride) throws CacheException {
+            if (minimalPutOverride && contains(key)) {
+                return false;
+            }
+            return put(key, value);
+        }
+        
+        @Override
+        public SoftLock lockItem(final Object key, final Object version) throws CacheException {
+            return null;
+        }
+        
+        @Override
+        public SoftLock lockRegion() throws CacheException {
+            return null;
+        }
+        
+        @Override
+        public void unlockItem(final Object key, final SoftLock lock) throws CacheException {
+            EntityCache.this.remove(key);
+        }
+        
+        @Override
+        public void unlockRegion(final SoftLock lock) throws CacheException {
+            clear();
+        }
+        
+        @Override
+        public boolean insert(final Object key, final Object value, final Object version) throws CacheException {
+            return false;
+        }
+        
+        @Override
+        public boolean afterInsert(final Object key, final Object value, final Object version) throws CacheException {
+            return false;
+        }
+        
+        @Override
+        public boolean update(final Object key,
+                              final Object value,
+                              final Object currentVersion,
+                              final Object previousVersion) throws CacheException {
+            EntityCache.this.remove(key);
+            return false;
+        }
+        
+        @Override
+        public boolean afterUpdate(final Object key,
+                                   final Object value,
+                                   final Object currentVersion,
+                                   final Object previousVersion,
+                                   final SoftLock lock) throws CacheException {
+            EntityCache.this.remove(key);
+            return false;
+        }
+        
+        @Override
+        public void remove(final Object key) throws CacheException {
+            EntityCache.this.remove(key);
+        }
+        
+        @Override
+        public void removeAll() throws CacheException {
+            clear();
+        }
+        
+        @Override
+        public void evict(final Object key) throws CacheException {
+            EntityCache.this.remove(key);
+        }
+        
+        @Override
+        public void evictAll() throws CacheException {
+            clear();
+        }
+    }
+    
+    /** キャッシュ要素 */
+    private static class Element {
+        private final Object value;
+        private final long expiresAt;
+        
+        //コンストラクタ
+        Element(final Object value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+        
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package base.ddd;
+
+import java.util.*;
+
+import org.hibernate.cache.*;
+import org.hibernate.cache.access.*;
+import org.hibernate.cfg.Settings;
+
+import play.*;
+
+/**
+ * エンティティ二次キャッシュの領域ファクトリ
+ * <p>
+ * hibernate.cache.region.factory_class に指定する（playbase.cache.enabled=true の場合はDddPluginが設定）。
+ * 領域名は @Cached を付与したエンティティのクラス名。
+ * エンティティの領域のみに対応し、コレクション・クエリキャッシュには対応しない。
+ * </p>
+ */
+public class EntityCacheRegionFactory implements RegionFactory {
+    
+    //領域名の接頭辞
+    private String prefix;
+    
+    @Override
+    public EntityRegion buildEntityRegion(final String regionName,
+                                          final Properties properties,
+                                          final CacheDataDescription metadata) throws CacheException {
+        String className = regionName;
+        if (prefix != null && className.startsWith(prefix + ".")) {
+            className = className.substring(prefix.length() + 1);
+        }
+        final Cached cached = cached(className);
+        final EntityCache cache = cached != null
+                ? new EntityCache(regionName, cached.maxSize(), cached.ttl() * 1000L, metadata)
+                : new EntityCache(regionName, 1000, 600 * 1000L, metadata);
+        EntityCache.register(className, cache);
+        return cache;
+    }
+    
+    //領域に対応するエンティティの設定値
+    private static Cached cached(final String className) {
+        try {
+            return Play.classloader.loadClass(className).getAnnotation(Cached.class);
+        }
+        catch (final ClassNotFoundException e) {
+            return null;
+        }
+    }
+    
+    @Override
+    public CollectionRegion buildCollectionRegion(final String regionName,
+                                                  final Properties properties,
+                                                  final CacheDataDescription metadata) throws CacheException {
+        throw new CacheException("コレクションのキャッシュには対応していません：" + regionName);
+    }
+    
+    @Override
+    public QueryResultsRegion buildQueryResultsRegion(final String regionName,
+                                                      final Properties properties) throws CacheException {
+        throw new CacheException("クエリキャッシュには対応していません：" + regionName);
+    }
+    
+    @Override
+    public TimestampsRegion buildTimestampsRegion(final String regionName,
+                                                  final Properties properties) throws CacheException {
+        throw new CacheException("クエリキャッシュには対応していません：" + regionName);
+    }
+    
+    @Override
+    public long nextTimestamp() {
+        return Timestamper.next();
+    }
+    
+    @Override
+    public void start(final Settings settings, final Properties properties) throws CacheException {
+        prefix = settings.getCacheRegionPrefix();
+    }
+    
+    @Override
+    public void stop() {}
+    
+    @Override
+    public boolean isMinimalPutsEnabledByDefault() {
+        return false;
+    }
+    
+    @Override
+    public AccessType getDefaultAccessType() {
+        return AccessType.NONSTRICT_READ_WRITE;
+    }
+    
+}
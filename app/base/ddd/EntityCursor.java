@@ -0,0 +1,214 @@
+package base.ddd;
+
+import java.io.*;
+import java.util.*;
+
+import org.hibernate.*;
+
+/**
+ * GenericModelsの逐次読み込み
+ * <p>
+ * 前方専用のスクロールカーソルでエンティティを1件ずつ読み込み、
+ * 指定件数ごとに永続化コンテキストをフラッシュ・クリアすることで、件数によらず一定のメモリで走査する。
+ * 既定では無効（isDisable）の行を除外する。
+ * 最初の読み込みまでに fetchSize・clearEvery・includeDisabled・readOnly で設定を変更できる。
+ * 最後まで読み込むとカーソルは自動で閉じられる。途中で終える場合は close() すること。
+ * クリアにより、走査前・走査中に読み込んだエンティティも永続化コンテキストから切り離される。
+ * </p>
+ * <pre>
+ * final EntityCursor&lt;Order&gt; cursor = GenericModels.scroll(Order.class).fetchSize(500);
+ * try {
+ *     for (final Order order : cursor) {
+ *         ...
+ *     }
+ * }
+ * finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ * MySQLで結果を逐次取得するには fetchSize に Integer.MIN_VALUE を指定し、readOnly() を併用する。
+ * 逐次取得中は同じ接続で他のSQLを発行できないため、走査中はエンティティの変更・保存や、未初期化の関連の参照を行わないこと。
+ * @see GenericModels#scroll(Class, String, Object...)
+ */
+public class EntityCursor<T extends GenericModels> implements Iterator<T>, Iterable<T>, Closeable {
+    
+    /** JDBCフェッチサイズの既定値 */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    
+    private final Class<T> entityClass;
+    private final String where;
+    private final Object[] params;
+    
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private int clearEvery = BatchSave.defaultBatchSize();
+    private boolean includeDisabled = false;
+    private boolean readOnly = false;
+    
+    private Session session;
+    private ScrollableResults results;
+    //読み込み済み・未返却のエンティティ
+    private T next;
+    private boolean closed = false;
+    private int count = 0;
+    //最後にクリアした時点の返却件数
+    private int clearedAt = 0;
+    
+    //コンストラクタ
+    EntityCursor(final Class<T> entityClass, final String where, final Object... params) {
+        if (entityClass == null) {
+            throw new IllegalArgumentException();
+        }
+        this.entityClass = entityClass;
+        this.where = where;
+        this.params = params;
+    }
+    
+    /** JDBCフェッチサイズ（一度にDBから取得する行数） */
+    public EntityCursor<T> fetchSize(final int fetchSize) {
+        assertNotOpened();
+        this.fetchSize = fetchSize;
+        return this;
+    }
+    
+    /** 永続化コンテキストをクリアする間隔（既定値は hibernate.jdbc.batch_size の設定値） */
+    public EntityCursor<T> clearEvery(final int clearEvery) {
+        assertNotOpened();
+        if (clearEvery < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.clearEvery = clearEvery;
+        return this;
+    }
+    
+    /** 無効の行も対象とする */
+    public EntityCursor<T> includeDisabled() {
+        assertNotOpened();
+        this.includeDisabled = true;
+        return this;
+    }
+    
+    /**
+     * 読み取り専用で読み込む（保存・有効化・無効化は不可）
+     * <p>
+     * 走査開始前にのみフラッシュし、クリア時はフラッシュしない。走査中に他のエンティティへ加えた変更はクリアで破棄される。
+     * </p>
+     */
+    public EntityCursor<T> readOnly() {
+        assertNotOpened();
+        this.readOnly = true;
+        return this;
+    }
+    
+    /** 返却済みの件数 */
+    public int count() {
+        return count;
+    }
+    
+    //-----------------------------------------
+    // 走査
+    //-----------------------------------------
+    
+    /** 走査（1つのカーソルにつき1回のみ） */
+    @Override
+    public Iterator<T> iterator() {
+        assertNotOpened();
+        return this;
+    }
+    
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        open();
+        //前回クリア以降に返却した件数が上限に達していれば、次の行を読み込む前にクリアする
+        if (count > clearedAt && count % clearEvery == 0) {
+            //読み取り専用では書き込む変更がなく、逐次取得中の接続にSQLを発行しない
+            if (readOnly == false) {
+                session.flush();
+            }
+            session.clear();
+            clearedAt = count;
+        }
+        if (results.next() == false) {
+            close();
+            return false;
+        }
+        next = entityClass.cast(results.get(0));
+        return true;
+    }
+    
+    @Override
+    public T next() {
+        if (hasNext() == false) {
+            throw new NoSuchElementException();
+        }
+        final T entity = next;
+        next = null;
+        count++;
+        return entity;
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /** カーソルを閉じる */
+    @Override
+    public void close() {
+        closed = true;
+        next = null;
+        if (results != null) {
+            results.close();
+            results = null;
+        }
+    }
+    
+    //-----------------------------------------
+    // 内部処理
+    //-----------------------------------------
+    
+    private void open() {
+        if (results != null) {
+            return;
+        }
+        session = GenericModels.session();
+        if (readOnly) {
+            //走査中はフラッシュしないため、それまでの変更を先に書き込む
+            session.flush();
+        }
+        final Query query = session.createQuery(hql())
+                                   .setFetchSize(fetchSize)
+                                   .setReadOnly(readOnly);
+        for (int i = 0; params != null && i < params.length; i++) {
+            query.setParameter(String.valueOf(i + 1), params[i]);
+        }
+        results = query.scroll(ScrollMode.FORWARD_ONLY);
+    }
+    
+    /** 検索文（条件中のパラメータは ?1, ?2 ... で指定） */
+    private String hql() {
+        final List<String> conditions = new ArrayList<String>();
+        if (includeDisabled == false) {
+            conditions.add("isDisable = " + GenericModels.ENABLE);
+        }
+        if (where != null) {
+            conditions.add("(" + where + ")");
+        }
+        final StringBuilder hql = new StringBuilder("from ").append(entityClass.getName());
+        for (int i = 0; i < conditions.size(); i++) {
+            hql.append(i == 0 ? " where " : " and ").append(conditions.get(i));
+        }
+        return hql.toString();
+    }
+    
+    private void assertNotOpened() {
+        if (results != null || closed) {
+            throw new IllegalStateException("走査開始後は変更できません。");
+        }
+    }
+}
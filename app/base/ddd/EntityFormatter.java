@@ -0,0 +1,211 @@
+package base.ddd;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.hibernate.collection.*;
+import org.hibernate.proxy.*;
+
+/**
+ * エンティティの文字列化
+ * <p>
+ * 遅延ロードを発生させないよう、未初期化のプロキシはクラス名とIDのみ、
+ * 未初期化のコレクションは件数も取得せずに出力する。
+ * 関連エンティティは指定階層まで展開し、それ以降・循環参照はクラス名とIDのみとする。
+ * 出力形式はToStringStyle.SHORT_PREFIX_STYLEに準じる。
+ * </p>
+ * @see Entity#toStringAll(Appendable, int, int)
+ */
+class EntityFormatter {
+    
+    private static final String NULL = "<null>";
+    private static final String UNINITIALIZED = "<uninitialized>";
+    
+    //クラスごとの出力対象フィールド
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+        
+        @Override
+        protected Field[] computeValue(final Class<?> type) {
+            return collectFields(type);
+        }
+    };
+    
+    private final Appendable out;
+    private final int maxDepth;
+    private final int maxElements;
+    
+    //展開中のエンティティ（循環参照の検出用）
+    private final Set<Object> visiting = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    
+    //コンストラクタ
+    EntityFormatter(final Appendable out, final int maxDepth, final int maxElements) {
+        if (out == null || maxDepth < 0 || maxElements < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.out = out;
+        this.maxDepth = maxDepth;
+        this.maxElements = maxElements;
+    }
+    
+    /** エンティティを出力 */
+    void format(final GenericModels entity) throws IOException {
+        formatEntity(entity, 0);
+    }
+    
+    //-----------------------------------------
+    // 値ごとの出力
+    //-----------------------------------------
+    
+    private void formatValue(final Object value, final int depth) throws IOException {
+        if (value == null) {
+            out.append(NULL);
+        }
+        else if (value instanceof HibernateProxy) {
+            formatProxy((HibernateProxy) value, depth);
+        }
+        else if (value instanceof GenericModels) {
+            formatEntity((GenericModels) value, depth);
+        }
+        else if (value instanceof PersistentCollection
+                && ((PersistentCollection) value).wasInitialized() == false) {
+            out.append(UNINITIALIZED);
+        }
+        else if (value instanceof Collection) {
+            formatElements(((Collection<?>) value).iterator(), ((Collection<?>) value).size(), depth);
+        }
+        else if (value instanceof Map) {
+            formatMap((Map<?, ?>) value, depth);
+        }
+        else if (value.getClass().isArray()) {
+            formatArray(value, depth);
+        }
+        else {
+            out.append(String.valueOf(value));
+        }
+    }
+    
+    private void formatProxy(final HibernateProxy proxy, final int depth) throws IOException {
+        final LazyInitializer initializer = proxy.getHibernateLazyInitializer();
+        if (initializer.isUninitialized()) {
+            //IDはプロキシが保持しているため、ロードは発生しない
+            appendReference(Entity.getClassObj(proxy), initializer.getIdentifier());
+            return;
+        }
+        formatValue(initializer.getImplementation(), depth);
+    }
+    
+    private void formatEntity(final GenericModels entity, final int depth) throws IOException {
+        if (depth > maxDepth || visiting.contains(entity)) {
+            appendReference(entity.getClass(), entity.id());
+            return;
+        }
+        
+        visiting.add(entity);
+        try {
+            out.append(entity.getClass().getSimpleName()).append('[');
+            boolean first = true;
+            for (final Field field : FIELDS.get(entity.getClass())) {
+                if (first == false) {
+                    out.append(',');
+                }
+                first = false;
+                out.append(field.getName()).append('=');
+                formatValue(read(field, entity), depth + 1);
+            }
+            out.append(']');
+        }
+        finally {
+            visiting.remove(entity);
+        }
+    }
+    
+    private void formatElements(final Iterator<?> elements, final int size, final int depth) throws IOException {
+        out.append('[');
+        int count = 0;
+        while (elements.hasNext() && count < maxElements) {
+            if (count > 0) {
+                out.append(',');
+            }
+            formatValue(elements.next(), depth);
+            count++;
+        }
+        appendRest(size - count, count);
+        out.append(']');
+    }
+    
+    private void formatMap(final Map<?, ?> map, final int depth) throws IOException {
+        out.append('{');
+        int count = 0;
+        final Iterator<? extends Map.Entry<?, ?>> entries = map.entrySet().iterator();
+        while (entries.hasNext() && count < maxElements) {
+            final Map.Entry<?, ?> entry = entries.next();
+            if (count > 0) {
+                out.append(',');
+            }
+            formatValue(entry.getKey(), depth);
+            out.append('=');
+            formatValue(entry.getValue(), depth);
+            count++;
+        }
+        appendRest(map.size() - count, count);
+        out.append('}');
+    }
+    
+    private void formatArray(final Object array, final int depth) throws IOException {
+        final int length = Array.getLength(array);
+        out.append('{');
+        final int count = Math.min(length, maxElements);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            formatValue(Array.get(array, i), depth);
+        }
+        appendRest(length - count, count);
+        out.append('}');
+    }
+    
+    //-----------------------------------------
+    // 共通処理
+    //-----------------------------------------
+    
+    /** クラス名とIDのみ出力 */
+    private void appendReference(final Class<?> type, final Object id) throws IOException {
+        out.append(type.getSimpleName()).append('#').append(String.valueOf(id));
+    }
+    
+    /** 省略した要素数を出力 */
+    private void appendRest(final int rest, final int count) throws IOException {
+        if (rest > 0) {
+            out.append(count > 0 ? "," : "").append("...(+").append(String.valueOf(rest)).append(')');
+        }
+    }
+    
+    private static Object read(final Field field, final Object obj) {
+        try {
+            return field.get(obj);
+        }
+        catch (final IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /** 出力対象フィールド（ReflectionToStringBuilderと同様、static・transient・合成フィールドを除く） */
+    private static Field[] collectFields(final Class<?> type) {
+        final List<Field> fields = new ArrayList<Field>();
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            for (final Field field : clazz.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers)
+                        || Modifier.isTransient(modifiers)
+                        || field.getName().indexOf('$') != -1) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields.toArray(new Field[fields.size()]);
+    }
+}
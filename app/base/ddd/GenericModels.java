@@ -1,12 +1,19 @@
 package base.ddd;
 
+import java.util.*;
+
 import javax.persistence.*;
 
+import org.hibernate.Session;
 import org.hibernate.annotations.*;
 import org.joda.time.*;
 
 import play.db.jpa.*;
 
+import base.jobs.*;
+import base.metrics.*;
+import base.metrics.Metrics.Kind;
+
 /**
  * エンティティ基底クラス
  */
@@ -16,9 +23,12 @@ public abstract class GenericModels extends GenericModel {
     protected static final Integer ENABLE = 0;
     protected static final Integer DISABLE = 1;
     
+    /** サロゲートキーの採番名（既定の @GenericGenerator は IdGeneratorEnhancer が付与） */
+    public static final String ID_GENERATOR = "base.ddd.id";
+    
     //サロゲートキー
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = ID_GENERATOR)
     protected Long id;
     
     //楽観ロックカラム
@@ -62,11 +72,13 @@ public abstract class GenericModels extends GenericModel {
     }
     
     public void enable() {
+        assertWritable();
         isDisable = ENABLE;
         this.save();
     }
     
     public void disable() {
+        assertWritable();
         isDisable = DISABLE;
         this.save();
     }
@@ -74,7 +86,10 @@ public abstract class GenericModels extends GenericModel {
     //保存時処理
     @PrePersist
     protected void prePersist() {
-        createDate = new DateTime();
+        //遅延書き込みの場合は登録依頼時の日時を保持する
+        if (createDate == null) {
+            createDate = new DateTime();
+        }
     }
     
     //更新時処理
@@ -83,14 +98,276 @@ public abstract class GenericModels extends GenericModel {
         modifyDate = new DateTime();
     }
     
-    /** 保存時にエンティティ保存仕様を満たすか確認する */
+    /**
+     * 保存時にエンティティ保存仕様を満たすか確認する
+     * <p>
+     * @ChangeTracked のエンティティで読み込み時点から自身・カスケード保存の関連エンティティに変更がない場合は、確認・保存を省略する。
+     * </p>
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public <T extends JPABase> T save() {
-        isSatisfied();
-        return super.save();
+        assertWritable();
+        final long start = Metrics.start();
+        try {
+            if (ChangeTracking.isUnchanged(this)) {
+                return (T) this;
+            }
+            final long satisfyStart = Metrics.start();
+            try {
+                isSatisfied();
+            }
+            finally {
+                Metrics.stop(Kind.SATISFY, getClass(), satisfyStart);
+            }
+            final T saved = super.save();
+            evictCache();
+            return saved;
+        }
+        finally {
+            Metrics.stop(Kind.SAVE, getClass(), start);
+        }
+    }
+    
+    /**
+     * 遅延保存（新規エンティティのみ）
+     * <p>
+     * 仕様確認（isSatisfied）のみその場で行い、エンティティを書き込みキュー（WriteBehindQueue）に追加する。
+     * 登録はバックグラウンドのジョブがまとめて行うため、呼び出し元のトランザクションには含まれない。
+     * 生成日時は呼び出し時点の日時となる。
+     * 登録は別のセッションで行うため、カスケード保存（CascadeType.ALL・PERSIST）の関連には新規エンティティのみ指定できる。
+     * 登録済みのエンティティはカスケード保存しない関連で参照すること。
+     * </p>
+     * @throws IllegalStateException 登録済みのエンティティ、カスケード保存の関連に登録済みのエンティティを含む場合、
+     *             またはキューが満杯で待ち時間内に空きが出なかった場合
+     * @see base.plugins.WriteBehindPlugin
+     */
+    public void saveLater() {
+        assertWritable();
+        if (id != null) {
+            throw new IllegalStateException("遅延保存は新規エンティティのみ可能です：" + getClass().getName() + "#" + id);
+        }
+        if (ChangeTracking.cascadesToPersisted(this)) {
+            throw new IllegalStateException("遅延保存ではカスケード保存の関連に登録済みのエンティティを指定できません：" + getClass().getName());
+        }
+        final long start = Metrics.start();
+        try {
+            isSatisfied();
+        }
+        finally {
+            Metrics.stop(Kind.SATISFY, getClass(), start);
+        }
+        createDate = new DateTime();
+        WriteBehindQueue.enqueue(this);
+    }
+    
+    /** 二次キャッシュから除去（@Cached のエンティティのみ） */
+    private void evictCache() {
+        if (id != null && getClass().isAnnotationPresent(Cached.class)) {
+            session().getSessionFactory().getCache().evictEntity(getClass(), id);
+        }
+    }
+    
+    /**
+     * 読み込み時点から変更されたフィールド名
+     * <p>
+     * コレクションは要素の追加・削除、または差し替えを変更とみなす。
+     * </p>
+     * @return 永続化コンテキストで管理されていない（新規・切り離し済み）場合はnull
+     */
+    public Set<String> changedFields() {
+        return ChangeTracking.changedProperties(this);
+    }
+    
+    /** 読み取り専用で読み込まれたエンティティかどうか */
+    public boolean isReadOnly() {
+        return ReadOnlyQuery.isReadOnly(this);
+    }
+    
+    //読み取り専用のエンティティは変更不可
+    void assertWritable() {
+        if (isReadOnly()) {
+            throw new IllegalStateException("読み取り専用で読み込まれたエンティティは保存できません：" + getClass().getName() + "#" + id);
+        }
     }
     
     /** エンティティが仕様を満たしているかどうか（サブクラス実装） */
     public abstract void isSatisfied();
     
+    // 読み取り専用検索 -------------------------------------
+    
+    /**
+     * 読み取り専用で検索
+     * <p>
+     * ダーティチェック用のスナップショット（読み込み時点の値）を持たず、フラッシュ時の確認対象にもならない。
+     * 永続化コンテキストが保持するヒープ量はエンティティ本体が大半のため、削減は1割程度にとどまる（ReadOnlyBenchmark）。
+     * 読み込んだエンティティの save()・enable()・disable() は IllegalStateException となる。
+     * </p>
+     * @param where JPQL条件（パラメータは ?1, ?2 ... で指定、nullの場合は全件）
+     */
+    public static <T extends GenericModels> List<T> findReadOnly(final Class<T> entityClass,
+                                                                 final String where,
+                                                                 final Object... params) {
+        return ReadOnlyQuery.find(entityClass, where, params);
+    }
+    
+    /**
+     * ID指定で読み取り専用で検索
+     * @return 該当しない場合はnull
+     * @see #findReadOnly(Class, String, Object...)
+     */
+    public static <T extends GenericModels> T findByIdReadOnly(final Class<T> entityClass,
+                                                               final Long id) {
+        final List<T> found = ReadOnlyQuery.find(entityClass, "id = ?1", id);
+        return found.isEmpty() ? null : found.get(0);
+    }
+    
+    // 逐次読み込み -------------------------------------
+    
+    /**
+     * 有効なエンティティを逐次読み込み
+     * @see #scroll(Class, String, Object...)
+     */
+    public static <T extends GenericModels> EntityCursor<T> scroll(final Class<T> entityClass) {
+        return new EntityCursor<T>(entityClass, null);
+    }
+    
+    /**
+     * JPQL条件指定で有効なエンティティを逐次読み込み（永続化コンテキストを一定件数ごとにクリアする）
+     * @param where 条件（パラメータは ?1, ?2 ... で指定）
+     * @see EntityCursor
+     */
+    public static <T extends GenericModels> EntityCursor<T> scroll(final Class<T> entityClass,
+                                                                   final String where,
+                                                                   final Object... params) {
+        return new EntityCursor<T>(entityClass, where, params);
+    }
+    
+    // キーセットページング -------------------------------------
+    
+    /**
+     * 有効なエンティティの先頭ページ（サロゲートキーの昇順）
+     * @see #firstPage(Class, KeysetPage.Order, int)
+     */
+    public static <T extends GenericModels> KeysetPage<T> firstPage(final Class<T> entityClass,
+                                                                    final int pageSize) {
+        return KeysetPage.first(entityClass, KeysetPage.Order.ID_ASC, pageSize);
+    }
+    
+    /**
+     * 有効なエンティティの先頭ページ
+     * @param order 並び順（サロゲートキー、または生成日時・サロゲートキーの昇順・降順）
+     * @see KeysetPage
+     */
+    public static <T extends GenericModels> KeysetPage<T> firstPage(final Class<T> entityClass,
+                                                                    final KeysetPage.Order order,
+                                                                    final int pageSize) {
+        return KeysetPage.first(entityClass, order, pageSize);
+    }
+    
+    /**
+     * カーソル位置のページ（並び順は先頭ページ取得時の指定を引き継ぐ）
+     * @param cursor KeysetPage#nextCursor()・KeysetPage#previousCursor() の値
+     * @throws IllegalArgumentException カーソルが不正な場合
+     */
+    public static <T extends GenericModels> KeysetPage<T> page(final Class<T> entityClass,
+                                                               final String cursor,
+                                                               final int pageSize) {
+        return KeysetPage.at(entityClass, cursor, pageSize);
+    }
+    
+    // 競合時の再試行 -------------------------------------
+    
+    /**
+     * 楽観ロック競合時に再試行しながら保存
+     * @see #saveWithRetry(Class, Long, OptimisticRetry.Mutation, int)
+     */
+    public static <T extends GenericModels> T saveWithRetry(final Class<T> entityClass,
+                                                            final Long id,
+                                                            final OptimisticRetry.Mutation<? super T> mutation) {
+        return OptimisticRetry.save(entityClass, id, mutation, OptimisticRetry.DEFAULT_MAX_ATTEMPTS);
+    }
+    
+    /**
+     * 楽観ロック競合時に再試行しながら保存
+     * <p>
+     * 試行ごとに独立したトランザクションでエンティティを読み直し、変更を適用して保存・コミットする。
+     * 競合した場合はジッタ付きの指数バックオフで待ってから再試行する。
+     * 呼び出し元の永続化コンテキストに同じエンティティがある場合、その内容は古いままとなる。
+     * </p>
+     * @param mutation エンティティへの変更（試行ごとに呼ばれるため、副作用を持たないこと）
+     * @param maxAttempts 最大試行回数（超えた場合は最後の楽観ロック例外を送出する）
+     * @return 保存したエンティティ（トランザクション終了後のため永続化コンテキストから切り離されている）
+     * @see OptimisticRetry#of(Class)
+     */
+    public static <T extends GenericModels> T saveWithRetry(final Class<T> entityClass,
+                                                            final Long id,
+                                                            final OptimisticRetry.Mutation<? super T> mutation,
+                                                            final int maxAttempts) {
+        return OptimisticRetry.save(entityClass, id, mutation, maxAttempts);
+    }
+    
+    // 一括操作 -------------------------------------
+    
+    /**
+     * 一括保存（hibernate.jdbc.batch_size 件ごとにフラッシュ・クリアする）
+     * @param entities 保存対象（isSatisfiedを満たさないものは保存しない）
+     */
+    public static BatchSaveResult saveAll(final Iterable<? extends GenericModels> entities) {
+        return BatchSave.saveAll(entities, BatchSave.defaultBatchSize());
+    }
+    
+    /**
+     * 一括保存
+     * @param entities 保存対象（isSatisfiedを満たさないものは保存しない）
+     * @param batchSize フラッシュ・クリアする件数間隔
+     */
+    public static BatchSaveResult saveAll(final Iterable<? extends GenericModels> entities,
+                                          final int batchSize) {
+        return BatchSave.saveAll(entities, batchSize);
+    }
+    
+    /**
+     * ID指定で一括有効化（エンティティを読み込まず、UPDATE文で更新する）
+     * @return 更新件数
+     */
+    public static int enableAll(final Class<? extends GenericModels> entityClass,
+                                final Collection<Long> ids) {
+        return BulkUpdate.updateByIds(entityClass, ENABLE, ids);
+    }
+    
+    /**
+     * ID指定で一括無効化（エンティティを読み込まず、UPDATE文で更新する）
+     * @return 更新件数
+     */
+    public static int disableAll(final Class<? extends GenericModels> entityClass,
+                                 final Collection<Long> ids) {
+        return BulkUpdate.updateByIds(entityClass, DISABLE, ids);
+    }
+    
+    /**
+     * JPQL条件指定で一括有効化（条件中のパラメータは ?1, ?2 ... で指定）
+     * @return 更新件数
+     */
+    public static int enableWhere(final Class<? extends GenericModels> entityClass,
+                                  final String where,
+                                  final Object... params) {
+        return BulkUpdate.updateWhere(entityClass, ENABLE, where, params);
+    }
+    
+    /**
+     * JPQL条件指定で一括無効化（条件中のパラメータは ?1, ?2 ... で指定）
+     * @return 更新件数
+     */
+    public static int disableWhere(final Class<? extends GenericModels> entityClass,
+                                   final String where,
+                                   final Object... params) {
+        return BulkUpdate.updateWhere(entityClass, DISABLE, where, params);
+    }
+    
+    /** 現在のHibernateセッション */
+    static Session session() {
+        return (Session) JPA.em().getDelegate();
+    }
+    
 }
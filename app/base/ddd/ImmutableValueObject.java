@@ -0,0 +1,62 @@
+package base.ddd;
+
+/**
+ * 不変値オブジェクト抽象基底クラス
+ * <p>
+ * 生成後にフィールドを変更しない値オブジェクトはこのクラスを継承する。
+ * ハッシュ値は初回に一度だけ算出し、equalsではハッシュ値の不一致で早期に不一致と判定する。
+ * validate()は一度成功すれば以降は再評価しない。
+ * intern()で等価なインスタンスを1つに集約でき、集約後は参照比較（==）で同値判定できる。
+ * フィールドを変更するサブクラスでは結果が不正となるため、ValueObjectを継承すること。
+ * </p>
+ */
+public abstract class ImmutableValueObject extends ValueObject {
+    
+    //算出済みハッシュ値（0は未算出）
+    private transient int hash;
+    //バリデーション済みかどうか
+    private transient volatile boolean validated;
+    
+    @Override
+    public boolean equals(final Object o) {
+        //ハッシュ値が異なれば不一致
+        if (o instanceof ImmutableValueObject
+                && o != this
+                && o.getClass() == getClass()
+                && hashCode() != o.hashCode()) {
+            return false;
+        }
+        return super.equals(o);
+    }
+    
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = fieldsHashCode();
+            hash = h;
+        }
+        return h;
+    }
+    
+    /** Columnアノテーション内容でバリデーション（成功後は再評価しない） */
+    @Override
+    protected void validate() {
+        if (validated) {
+            return;
+        }
+        super.validate();
+        validated = true;
+    }
+    
+    /**
+     * 正規化（等価なインスタンスを1つに集約する）
+     * @return プール済みの等価なインスタンス（なければ自身）
+     * @see InternPool
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends ImmutableValueObject> T intern() {
+        return (T) InternPool.intern(this);
+    }
+    
+}
@@ -0,0 +1,117 @@
+package base.ddd;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 不変値オブジェクトの正規化プール
+ * <p>
+ * 等価な値オブジェクトを1つのインスタンスに集約する（クラスごとに1プール）。
+ * プールは弱参照で保持するため、どこからも参照されなくなった値はGCで回収される。
+ * 競合を避けるため、ハッシュ値で分割した区画ごとに排他する。
+ * </p>
+ * @see ImmutableValueObject#intern()
+ */
+public class InternPool {
+    
+    //区画数（2のべき乗）
+    private static final int STRIPES = 16;
+    
+    //クラスごとのプール
+    private static final ClassValue<InternPool> POOLS = new ClassValue<InternPool>() {
+        
+        @Override
+        protected InternPool computeValue(final Class<?> type) {
+            return new InternPool();
+        }
+    };
+    
+    private final Map<ImmutableValueObject, WeakReference<ImmutableValueObject>>[] stripes;
+    
+    //統計
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    
+    //コンストラクタ
+    @SuppressWarnings("unchecked")
+    private InternPool() {
+        stripes = new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new WeakHashMap<ImmutableValueObject, WeakReference<ImmutableValueObject>>();
+        }
+    }
+    
+    /** クラスのプール */
+    public static InternPool of(final Class<? extends ImmutableValueObject> clazz) {
+        return POOLS.get(clazz);
+    }
+    
+    /** 正規化（等価なインスタンスがプールにあればそれを、なければ引数を登録して返す） */
+    static ImmutableValueObject intern(final ImmutableValueObject value) {
+        return POOLS.get(value.getClass()).get(value);
+    }
+    
+    private ImmutableValueObject get(final ImmutableValueObject value) {
+        final int h = value.hashCode();
+        final Map<ImmutableValueObject, WeakReference<ImmutableValueObject>> stripe = stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            final WeakReference<ImmutableValueObject> ref = stripe.get(value);
+            final ImmutableValueObject canonical = ref != null ? ref.get() : null;
+            if (canonical != null) {
+                hits.incrementAndGet();
+                return canonical;
+            }
+            stripe.put(value, new WeakReference<ImmutableValueObject>(value));
+        }
+        misses.incrementAndGet();
+        return value;
+    }
+    
+    // 統計 -------------------------------------
+    
+    /** プール済みのインスタンスを返した回数 */
+    public long hitCount() {
+        return hits.get();
+    }
+    
+    /** 新たに登録した回数 */
+    public long missCount() {
+        return misses.get();
+    }
+    
+    /** ヒット率 */
+    public double hitRatio() {
+        final long hit = hits.get();
+        final long total = hit + misses.get();
+        return total > 0 ? (double) hit / total : 0;
+    }
+    
+    /** 保持件数（回収済みの値は含まない） */
+    public int size() {
+        int size = 0;
+        for (final Map<ImmutableValueObject, WeakReference<ImmutableValueObject>> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+    
+    /** プールと統計をクリア */
+    public void clear() {
+        for (final Map<ImmutableValueObject, WeakReference<ImmutableValueObject>> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("size=%d, hit=%d, miss=%d", size(), hitCount(), missCount());
+    }
+    
+}
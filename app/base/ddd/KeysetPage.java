@@ -0,0 +1,218 @@
+package base.ddd;
+
+import java.util.*;
+
+import org.hibernate.*;
+import org.joda.time.*;
+
+import play.libs.*;
+
+/**
+ * GenericModelsのキーセットページング
+ * <p>
+ * OFFSETを使わず、前ページ末尾（または先頭）のキー値より後（前）の行を
+ * 件数指定で取得するため、何ページ目であっても1ページの取得コストはほぼ一定となる。
+ * キーはサロゲートキー（単調増加）、または生成日時とサロゲートキーの組で、無効の行は含まない。
+ * 次・前ページの位置はカーソル文字列として返し、その内容は呼び出し側で解釈しないこと。
+ * 効率よく検索するには、(isDisable, id) または (isDisable, createDate, id) の索引を作成する。
+ * </p>
+ * @see GenericModels#firstPage(Class, Order, int)
+ * @see GenericModels#page(Class, String, int)
+ */
+public class KeysetPage<T extends GenericModels> {
+    
+    /** 並び順 */
+    public static enum Order {
+        ID_ASC(false, false),
+        ID_DESC(false, true),
+        CREATE_DATE_ASC(true, false),
+        CREATE_DATE_DESC(true, true);
+        
+        private final boolean byCreateDate;
+        private final boolean descending;
+        
+        private Order(final boolean byCreateDate, final boolean descending) {
+            this.byCreateDate = byCreateDate;
+            this.descending = descending;
+        }
+    }
+    
+    //カーソル文字列の区切り
+    private static final String SEPARATOR = ":";
+    
+    private final List<T> items;
+    private final String nextCursor;
+    private final String previousCursor;
+    
+    //コンストラクタ
+    private KeysetPage(final List<T> items, final String nextCursor, final String previousCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+        this.previousCursor = previousCursor;
+    }
+    
+    /** ページ内のエンティティ */
+    public List<T> items() {
+        return items;
+    }
+    
+    /** 次ページがあるかどうか */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+    
+    /** 前ページがあるかどうか */
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+    
+    /** 次ページのカーソル（次ページがなければnull） */
+    public String nextCursor() {
+        return nextCursor;
+    }
+    
+    /** 前ページのカーソル（前ページがなければnull） */
+    public String previousCursor() {
+        return previousCursor;
+    }
+    
+    //-----------------------------------------
+    // 取得
+    //-----------------------------------------
+    
+    /** 先頭ページ */
+    static <T extends GenericModels> KeysetPage<T> first(final Class<T> entityClass,
+                                                         final Order order,
+                                                         final int pageSize) {
+        if (entityClass == null || order == null) {
+            throw new IllegalArgumentException();
+        }
+        return fetch(entityClass, new Position(order, true, null, null), pageSize);
+    }
+    
+    /** カーソル位置のページ */
+    static <T extends GenericModels> KeysetPage<T> at(final Class<T> entityClass,
+                                                      final String cursor,
+                                                      final int pageSize) {
+        if (entityClass == null || cursor == null) {
+            throw new IllegalArgumentException();
+        }
+        return fetch(entityClass, Position.decode(entityClass, cursor), pageSize);
+    }
+    
+    private static <T extends GenericModels> KeysetPage<T> fetch(final Class<T> entityClass,
+                                                                 final Position position,
+                                                                 final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        final Order order = position.order;
+        //前ページ方向は並び順を反転して取得し、取得後に戻す
+        final boolean descending = position.forward ? order.descending : order.descending == false;
+        final String comparison = descending ? "<" : ">";
+        final String direction = descending ? " desc" : " asc";
+        
+        final StringBuilder hql = new StringBuilder("from ").append(entityClass.getName())
+                                                            .append(" where isDisable = ")
+                                                            .append(GenericModels.ENABLE);
+        if (position.id != null) {
+            if (order.byCreateDate) {
+                hql.append(" and (createDate ").append(comparison).append(" :createDate")
+                   .append(" or (createDate = :createDate and id ").append(comparison).append(" :id))");
+            }
+            else {
+                hql.append(" and id ").append(comparison).append(" :id");
+            }
+        }
+        hql.append(" order by ");
+        if (order.byCreateDate) {
+            hql.append("createDate").append(direction).append(", ");
+        }
+        hql.append("id").append(direction);
+        
+        final Query query = GenericModels.session().createQuery(hql.toString());
+        if (position.id != null) {
+            query.setLong("id", position.id);
+            if (order.byCreateDate) {
+                query.setParameter("createDate", position.createDate, BulkUpdate.DATE_TIME);
+            }
+        }
+        //1件多く取得し、取得方向に続きがあるかを判定する
+        @SuppressWarnings("unchecked")
+        final List<T> items = new ArrayList<T>(query.setMaxResults(pageSize + 1).list());
+        final boolean more = items.size() > pageSize;
+        if (more) {
+            items.remove(pageSize);
+        }
+        if (position.forward == false) {
+            Collections.reverse(items);
+        }
+        if (items.isEmpty()) {
+            return new KeysetPage<T>(items, null, null);
+        }
+        
+        //カーソルで移動してきた方向には続きがある
+        final boolean hasNext = position.forward ? more : true;
+        final boolean hasPrevious = position.forward ? position.id != null : more;
+        final T last = items.get(items.size() - 1);
+        final T head = items.get(0);
+        return new KeysetPage<T>(items,
+                                 hasNext ? new Position(order, true, last.id(), last.createDate()).encode(entityClass) : null,
+                                 hasPrevious ? new Position(order, false, head.id(), head.createDate()).encode(entityClass) : null);
+    }
+    
+    //-----------------------------------------
+    // カーソル
+    //-----------------------------------------
+    
+    /** ページの位置（基準となる行のキー値と取得方向） */
+    private static class Position {
+        private final Order order;
+        private final boolean forward;
+        private final Long id;
+        private final DateTime createDate;
+        
+        Position(final Order order, final boolean forward, final Long id, final DateTime createDate) {
+            this.order = order;
+            this.forward = forward;
+            this.id = id;
+            this.createDate = createDate;
+        }
+        
+        /** カーソル文字列（エンティティ・並び順・方向・キー値） */
+        String encode(final Class<?> entityClass) {
+            final String value = entityClass.getName().hashCode()
+                    + SEPARATOR + order.name()
+                    + SEPARATOR + (forward ? "N" : "P")
+                    + SEPARATOR + id
+                    + SEPARATOR + (createDate != null ? createDate.getMillis() : "");
+            return Codec.encodeBASE64(value).replace('+', '-').replace('/', '_').replace("=", "");
+        }
+        
+        static Position decode(final Class<?> entityClass, final String cursor) {
+            try {
+                final String base64 = cursor.replace('-', '+').replace('_', '/');
+                final String padding = "===".substring(0, (4 - base64.length() % 4) % 4);
+                final String[] values = new String(Codec.decodeBASE64(base64 + padding), "UTF-8").split(SEPARATOR, -1);
+                if (values.length != 5 || Integer.parseInt(values[0]) != entityClass.getName().hashCode()) {
+                    throw new IllegalArgumentException("カーソルが不正です：" + cursor);
+                }
+                final Order order = Order.valueOf(values[1]);
+                final DateTime createDate = values[4].isEmpty() ? null : new DateTime(Long.parseLong(values[4]));
+                if (order.byCreateDate && createDate == null) {
+                    throw new IllegalArgumentException("カーソルが不正です：" + cursor);
+                }
+                return new Position(order, "N".equals(values[2]), Long.valueOf(values[3]), createDate);
+            }
+            catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("カーソルが不正です：" + cursor, e);
+            }
+            catch (final IllegalArgumentException e) {
+                throw e;
+            }
+            catch (final Exception e) {
+                throw new IllegalArgumentException("カーソルが不正です：" + cursor, e);
+            }
+        }
+    }
+}
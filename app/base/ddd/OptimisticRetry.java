@@ -0,0 +1,178 @@
+package base.ddd;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.persistence.*;
+
+import org.hibernate.StaleStateException;
+
+import play.db.jpa.*;
+
+/**
+ * 楽観ロック競合時の再試行
+ * <p>
+ * 1回の試行ごとに独立したトランザクションでエンティティを読み直し、変更を適用して保存する。
+ * 競合（楽観ロック例外）した場合はロールバックし、ジッタ付きの指数バックオフで待ってから再試行する。
+ * 呼び出し元のトランザクションには影響しない。
+ * 競合・再試行の回数はエンティティのクラスごとに集計する。
+ * </p>
+ * @see GenericModels#saveWithRetry(Class, Long, Mutation)
+ */
+public class OptimisticRetry {
+    
+    /** 試行回数の既定値 */
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    
+    //バックオフの初期値・上限（ミリ秒）
+    private static final long BASE_DELAY_MILLIS = 10;
+    private static final long MAX_DELAY_MILLIS = 1000;
+    
+    //クラスごとの集計（キーはエンティティのクラス名）
+    private static final ConcurrentMap<String, OptimisticRetry> STATS = new ConcurrentHashMap<String, OptimisticRetry>();
+    
+    //統計
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    
+    /** エンティティへの変更（試行ごとに読み直したエンティティに適用される） */
+    public static interface Mutation<T extends GenericModels> {
+        
+        void apply(T entity);
+    }
+    
+    //コンストラクタ
+    private OptimisticRetry() {}
+    
+    /** エンティティの集計 */
+    public static OptimisticRetry of(final Class<? extends GenericModels> clazz) {
+        final String className = clazz.getName();
+        OptimisticRetry stats = STATS.get(className);
+        if (stats == null) {
+            final OptimisticRetry created = new OptimisticRetry();
+            stats = STATS.putIfAbsent(className, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+    
+    /** 競合回数 */
+    public long conflictCount() {
+        return conflicts.get();
+    }
+    
+    /** 再試行回数 */
+    public long retryCount() {
+        return retries.get();
+    }
+    
+    /** 試行回数を超えて失敗した回数 */
+    public long failureCount() {
+        return failures.get();
+    }
+    
+    /** 集計をクリア */
+    public void resetStatistics() {
+        conflicts.set(0);
+        retries.set(0);
+        failures.set(0);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("conflicts=%d, retries=%d, failures=%d",
+                             conflictCount(),
+                             retryCount(),
+                             failureCount());
+    }
+    
+    //-----------------------------------------
+    // 再試行
+    //-----------------------------------------
+    
+    /** 競合時に再試行しながら保存 */
+    static <T extends GenericModels> T save(final Class<T> clazz,
+                                            final Long id,
+                                            final Mutation<? super T> mutation,
+                                            final int maxAttempts) {
+        if (clazz == null || id == null || mutation == null || maxAttempts < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (JPA.isEnabled() == false) {
+            throw new IllegalStateException("JPAが有効ではありません。");
+        }
+        final OptimisticRetry stats = of(clazz);
+        for (int attempt = 1;; attempt++) {
+            try {
+                return attempt(clazz, id, mutation);
+            }
+            catch (final RuntimeException e) {
+                if (isConflict(e) == false) {
+                    throw e;
+                }
+                stats.conflicts.incrementAndGet();
+                if (attempt >= maxAttempts) {
+                    stats.failures.incrementAndGet();
+                    throw e;
+                }
+            }
+            stats.retries.incrementAndGet();
+            backoff(attempt);
+        }
+    }
+    
+    /** 独立したトランザクションで1回試行 */
+    private static <T extends GenericModels> T attempt(final Class<T> clazz,
+                                                       final Long id,
+                                                       final Mutation<? super T> mutation) {
+        //呼び出し元のコンテキストを退避
+        final JPA outer = JPA.local.get();
+        JPA.local.remove();
+        try {
+            JPAPlugin.startTx(false);
+            boolean rollback = true;
+            try {
+                final T entity = JPA.em().find(clazz, id);
+                if (entity == null) {
+                    throw new EntityNotFoundException(clazz.getName() + "#" + id);
+                }
+                mutation.apply(entity);
+                entity.save();
+                rollback = false;
+                return entity;
+            }
+            finally {
+                //コミット時の競合はここで例外となる
+                JPAPlugin.closeTx(rollback);
+            }
+        }
+        finally {
+            JPA.local.set(outer);
+        }
+    }
+    
+    /** 楽観ロックの競合かどうか（原因例外をたどる） */
+    private static boolean isConflict(final Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof StaleStateException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /** ジッタ付き指数バックオフ（0〜上限の一様乱数） */
+    private static void backoff(final int attempt) {
+        final long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
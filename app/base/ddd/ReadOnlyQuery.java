@@ -0,0 +1,52 @@
+package base.ddd;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+import org.hibernate.engine.*;
+
+import play.db.jpa.*;
+
+/**
+ * GenericModelsの読み取り専用検索
+ * <p>
+ * 読み取り専用・フラッシュなし（MANUAL）のヒントを付けて検索する。
+ * 読み込んだエンティティはダーティチェック用のスナップショットを持たず、フラッシュ時の確認対象にもならない。
+ * 検索前に同じエンティティが読み込み済みの場合は、そのエンティティ（読み取り専用ではない）が返る。
+ * </p>
+ */
+final class ReadOnlyQuery {
+    
+    //Hibernateのクエリヒント
+    private static final String HINT_READ_ONLY = "org.hibernate.readOnly";
+    private static final String HINT_FLUSH_MODE = "org.hibernate.flushMode";
+    
+    private ReadOnlyQuery() {}
+    
+    /** JPQL条件指定で検索（条件中のパラメータは ?1, ?2 ... で指定、nullの場合は全件） */
+    static <T extends GenericModels> List<T> find(final Class<T> entityClass,
+                                                  final String where,
+                                                  final Object... params) {
+        if (entityClass == null) {
+            throw new IllegalArgumentException();
+        }
+        final String jpql = "from " + entityClass.getName() + (where != null ? " where " + where : "");
+        final TypedQuery<T> query = JPA.em()
+                                       .createQuery(jpql, entityClass)
+                                       .setHint(HINT_READ_ONLY, true)
+                                       .setHint(HINT_FLUSH_MODE, "MANUAL");
+        for (int i = 0; params != null && i < params.length; i++) {
+            query.setParameter(i + 1, params[i]);
+        }
+        return query.getResultList();
+    }
+    
+    /** 読み取り専用で読み込まれたエンティティかどうか */
+    static boolean isReadOnly(final GenericModels entity) {
+        final SessionImplementor session = (SessionImplementor) GenericModels.session();
+        final EntityEntry entry = session.getPersistenceContext().getEntry(entity);
+        return entry != null && entry.getStatus() == Status.READ_ONLY;
+    }
+    
+}
@@ -0,0 +1,114 @@
+package base.ddd;
+
+import java.util.*;
+
+/**
+ * 一括バリデーション結果
+ * <p>
+ * ValueObjectValidation.validateAllに渡すことで、インスタンスを再利用できる。
+ * </p>
+ */
+public class ValidationResult {
+    
+    //違反一覧（入力順）
+    final List<Violation> violations = new ArrayList<Violation>();
+    
+    /** 違反がないかどうか */
+    public boolean isValid() {
+        return violations.isEmpty();
+    }
+    
+    /** 違反一覧 */
+    public List<Violation> violations() {
+        return Collections.unmodifiableList(violations);
+    }
+    
+    /** 指定の値オブジェクトの違反一覧 */
+    public List<Violation> violationsOf(final Object valueObject) {
+        final List<Violation> list = new ArrayList<Violation>();
+        for (final Violation v : violations) {
+            if (v.object() == valueObject) {
+                list.add(v);
+            }
+        }
+        return list;
+    }
+    
+    /** 結果のクリア */
+    public void clear() {
+        violations.clear();
+    }
+    
+    /** 違反の追加 */
+    void addAll(final List<Violation> list) {
+        violations.addAll(list);
+    }
+    
+    @Override
+    public String toString() {
+        return violations.toString();
+    }
+    
+    //-----------------------------------------
+    // 内部クラス
+    //-----------------------------------------
+    
+    /** 違反種別 */
+    public static enum Kind {
+        
+        //必須項目が未入力
+        REQUIRED("入力してください。"),
+        //文字長超過
+        TOO_LONG("文字長が超過しています。"),
+        //対応外の型（評価できない）
+        UNSUPPORTED("対応していない型です。");
+        
+        private final String message;
+        
+        private Kind(final String message) {
+            this.message = message;
+        }
+        
+        /** メッセージ */
+        public String message() {
+            return message;
+        }
+    }
+    
+    /** 違反内容 */
+    public static class Violation {
+        //違反した値オブジェクト
+        private final Object object;
+        //違反したフィールド名
+        private final String field;
+        //違反種別
+        private final Kind kind;
+        
+        //コンストラクタ
+        Violation(final Object object, final String field, final Kind kind) {
+            this.object = object;
+            this.field = field;
+            this.kind = kind;
+        }
+        
+        /** 違反した値オブジェクト */
+        public Object object() {
+            return object;
+        }
+        
+        /** 違反したフィールド名 */
+        public String field() {
+            return field;
+        }
+        
+        /** 違反種別 */
+        public Kind kind() {
+            return kind;
+        }
+        
+        @Override
+        public String toString() {
+            return object.getClass().getSimpleName() + "." + field + ":" + kind;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import java.io.*;
 import org.apache.commons.lang3.builder.*;
 
 import base.ddd.ValueObjectValidation.FieldInfoCollection;
+import base.metrics.*;
+import base.metrics.Metrics.Kind;
 
 /** DDD値オブジェクト抽象基底クラス */
 public abstract class ValueObject implements Serializable {
@@ -21,23 +23,28 @@ public abstract class ValueObject implements Serializable {
             return false;
         }
         //すべてのフィールドが同一かどうか
-        return EqualsBuilder.reflectionEquals(this, o);
+        return fieldsEquals(o);
     }
     
     @Override
     public int hashCode() {
-        return HashCodeBuilder.reflectionHashCode(this);
+        return fieldsHashCode();
     }
     
     @Override
     public String toString() {
-        return ReflectionToStringBuilder.toString(this,
-                                                  ToStringStyle.SHORT_PREFIX_STYLE);
+        return fieldsToString();
     }
     
     /** Columnアノテーション内容でバリデーション */
     protected void validate() {
-        new ValueObjectValidation(this).validate();
+        final long start = Metrics.start();
+        try {
+            fieldsValidate();
+        }
+        finally {
+            Metrics.stop(Kind.VALIDATE, getClass(), start);
+        }
     }
     
     /** 値オブジェクト内のフィールド一覧 */
@@ -45,4 +52,31 @@ public abstract class ValueObject implements Serializable {
         return new ValueObjectValidation(this).fields();
     }
     
+    //-----------------------------------------
+    // フィールド単位の比較・ハッシュ・文字列化・評価
+    // 具象クラスにはValueObjectEnhancerが直接アクセスする実装を生成する
+    // （生成できない場合は以下のリフレクション実装を利用）
+    //-----------------------------------------
+    
+    /** すべてのフィールドが同一かどうか（同一クラスであることは確認済み） */
+    protected boolean fieldsEquals(final Object o) {
+        return EqualsBuilder.reflectionEquals(this, o);
+    }
+    
+    /** フィールド値から算出したハッシュ値 */
+    protected int fieldsHashCode() {
+        return HashCodeBuilder.reflectionHashCode(this);
+    }
+    
+    /** フィールド値の文字列表現 */
+    protected String fieldsToString() {
+        return ReflectionToStringBuilder.toString(this,
+                                                  ToStringStyle.SHORT_PREFIX_STYLE);
+    }
+    
+    /** Columnアノテーション内容による各フィールドの評価 */
+    protected void fieldsValidate() {
+        new ValueObjectValidation(this).validate();
+    }
+    
 }
@@ -6,12 +6,24 @@ import java.lang.annotation.*;
 import java.lang.reflect.*;
 import java.math.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.joda.time.*;
 
+import base.ddd.ValidationResult.Kind;
+import base.ddd.ValidationResult.Violation;
+
 /** 値オブジェクト評価 */
 public class ValueObjectValidation {
     
+    //クラス単位のフィールド定義キャッシュ（クラスごとに一度だけ解決する）
+    private static final ClassValue<ClassInfo> CLASS_INFO = new ClassValue<ClassInfo>() {
+        @Override
+        protected ClassInfo computeValue(final Class<?> type) {
+            return new ClassInfo(type);
+        }
+    };
+    
     private final Object targetValueObject;
     
     /** コンストラクタ */
@@ -24,96 +36,259 @@ public class ValueObjectValidation {
         try {
             fields().validate();
         }
-        catch (final IllegalArgumentException iae) {
-            throw new IllegalArgumentException(iae.getMessage());
-        }
-        catch (final Exception e) {
+        catch (final IllegalAccessException e) {
             throw new RuntimeException(e);
         }
     }
     
     /** (staticを除く）ローカルフィールド一覧 */
     FieldInfoCollection fields() {
-        final List<FieldInfo> fields = new ArrayList<FieldInfo>();
-        for (final Field field : targetValueObject.getClass()
-                                                  .getDeclaredFields()) {
-            //staticフィールドは除外
-            if (Modifier.isStatic(field.getModifiers())) {
+        final ClassInfo classInfo = classInfo(targetValueObject.getClass());
+        classInfo.assertSupported();
+        return new FieldInfoCollection(classInfo, targetValueObject);
+    }
+    
+    /** クラス単位のフィールド定義 */
+    static ClassInfo classInfo(final Class<?> clazz) {
+        return CLASS_INFO.get(clazz);
+    }
+    
+    //-----------------------------------------
+    // 一括バリデーション
+    //-----------------------------------------
+    
+    /**
+     * 値オブジェクトの一括バリデーション
+     * <p>
+     * 例外を送出せず、すべての違反を結果として返す。
+     * 対応外の型のフィールドは、値を評価せずに違反（UNSUPPORTED）とする。
+     * </p>
+     * @param values 対象の値オブジェクト一覧
+     */
+    public static ValidationResult validateAll(final Collection<? extends ValueObject> values) {
+        return validateAll(values, false, new ValidationResult());
+    }
+    
+    /**
+     * 値オブジェクトの一括バリデーション
+     * @param values 対象の値オブジェクト一覧
+     * @param parallel 複数コアに分割して評価するかどうか
+     */
+    public static ValidationResult validateAll(final Collection<? extends ValueObject> values,
+                                               final boolean parallel) {
+        return validateAll(values, parallel, new ValidationResult());
+    }
+    
+    /**
+     * 値オブジェクトの一括バリデーション
+     * @param values 対象の値オブジェクト一覧
+     * @param parallel 複数コアに分割して評価するかどうか
+     * @param result 結果格納先（内容はクリアして再利用する）
+     */
+    public static ValidationResult validateAll(final Collection<? extends ValueObject> values,
+                                               final boolean parallel,
+                                               final ValidationResult result) {
+        if (values == null || result == null) {
+            throw new IllegalArgumentException();
+        }
+        result.clear();
+        final Object[] array = values.toArray();
+        if (parallel && array.length > ValidateTask.THRESHOLD) {
+            result.addAll(ValidateTask.POOL.invoke(new ValidateTask(array, 0, array.length)));
+        }
+        else {
+            check(array, 0, array.length, result.violations);
+        }
+        return result;
+    }
+    
+    /** 指定範囲の値オブジェクトを評価し、違反を追加する */
+    private static void check(final Object[] values,
+                              final int from,
+                              final int to,
+                              final List<Violation> violations) {
+        for (int i = from; i < to; i++) {
+            final Object value = values[i];
+            if (value == null) {
                 continue;
             }
-            field.setAccessible(true);
-            fields.add(new FieldInfo(field, targetValueObject));
+            for (final FieldMeta f : classInfo(value.getClass()).fields()) {
+                final Kind kind = f.supported() ? f.check(value) : Kind.UNSUPPORTED;
+                if (kind != null) {
+                    violations.add(new Violation(value, f.name(), kind));
+                }
+            }
+        }
+    }
+    
+    /** 並列評価タスク（範囲を二分し、入力順に結果を結合する） */
+    private static class ValidateTask extends RecursiveTask<List<Violation>> {
+        //分割しない要素数の上限
+        static final int THRESHOLD = 1024;
+        //並列評価用プール
+        static final ForkJoinPool POOL = new ForkJoinPool();
+        
+        private final Object[] values;
+        private final int from;
+        private final int to;
+        
+        ValidateTask(final Object[] values, final int from, final int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected List<Violation> compute() {
+            if (to - from <= THRESHOLD) {
+                final List<Violation> violations = new ArrayList<Violation>();
+                check(values, from, to, violations);
+                return violations;
+            }
+            final int middle = (from + to) >>> 1;
+            final ValidateTask left = new ValidateTask(values, from, middle);
+            left.fork();
+            final List<Violation> violations = new ValidateTask(values, middle, to).compute();
+            final List<Violation> merged = left.join();
+            merged.addAll(violations);
+            return merged;
         }
-        return new FieldInfoCollection(fields);
     }
     
     //-----------------------------------------
     // バリデーション用内部クラス
     //-----------------------------------------
     
-    /** Fieldラッパークラス */
-    static class FieldInfo {
+    /** クラス単位のフィールド定義（インスタンス間で共有） */
+    static class ClassInfo {
+        //フィールド定義一覧（宣言順）
+        private final List<FieldMeta> fields;
+        //小文字化したフィールド名から一覧上の位置への索引
+        private final Map<String, Integer> indexes;
+        
+        //コンストラクタ
+        ClassInfo(final Class<?> clazz) {
+            final List<FieldMeta> fields = new ArrayList<FieldMeta>();
+            final Map<String, Integer> indexes = new HashMap<String, Integer>();
+            for (final Field field : clazz.getDeclaredFields()) {
+                //staticフィールドは除外
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                field.setAccessible(true);
+                final FieldMeta meta = new FieldMeta(field);
+                //同名（大文字小文字違い）の場合は宣言順で先のフィールドを優先
+                final String key = meta.name().toLowerCase();
+                if (indexes.containsKey(key) == false) {
+                    indexes.put(key, fields.size());
+                }
+                fields.add(meta);
+            }
+            this.fields = Collections.unmodifiableList(fields);
+            this.indexes = indexes;
+        }
+        
+        /** フィールド定義一覧 */
+        List<FieldMeta> fields() {
+            return fields;
+        }
+        
+        /** 対応外の型のフィールドがあれば例外 */
+        void assertSupported() {
+            for (final FieldMeta f : fields) {
+                f.isSupported(f.field());
+            }
+        }
+        
+        /** フィールド定義の取得（大文字小文字を区別しない） */
+        FieldMeta get(final String fieldName) {
+            final Integer index = indexes.get(fieldName.toLowerCase());
+            return index != null ? fields.get(index) : null;
+        }
+    }
+    
+    /** フィールド定義（アノテーション解析結果） */
+    static class FieldMeta {
         //フィールド定義
         private final Field field;
-        //実インスタンス
-        private final Object object;
         //フィールドの文字長制約（制約設定がなければnull）
         private final Integer length;
         //フィールドがnull許容かどうか
         private final boolean nullable;
+        //対応する型かどうか
+        private final boolean supported;
         
-        //インスタンス
-        public FieldInfo(final Field field, final Object object) {
+        //コンストラクタ
+        FieldMeta(final Field field) {
             this.field = field;
-            this.object = object;
             length = length(field);
             nullable = nullable(field);
             
-            //内部型種別の確認
-            isSupported(field);
+            //内部型種別の確認（例外は利用時に送出する）
+            supported = supported(field.getType());
         }
         
         /** 内部クラス種別の確認 */
         public void isSupported(final Field field) {
-            final Class clazz = field().getType();
-            //指定のプリミティブ型以外は対応しない
-            if (!clazz.equals(String.class)
-                    && !clazz.equals(Integer.class)
-                    && !clazz.equals(Long.class)
-                    && !clazz.equals(BigDecimal.class)
-                    && !clazz.equals(DateTime.class)
-                    && !clazz.equals(Boolean.class)) {
+            final Class clazz = field.getType();
+            if (supported(clazz) == false) {
                 throw new RuntimeException("指定の型には対応していません：" + clazz.getName());
             }
         }
         
+        /** 対応する型かどうか */
+        boolean supported() {
+            return supported;
+        }
+        
+        //指定のプリミティブ型以外は対応しない
+        private static boolean supported(final Class<?> clazz) {
+            return clazz.equals(String.class)
+                    || clazz.equals(Integer.class)
+                    || clazz.equals(Long.class)
+                    || clazz.equals(BigDecimal.class)
+                    || clazz.equals(DateTime.class)
+                    || clazz.equals(Boolean.class);
+        }
+        
         /** バリデーション */
-        public void validate() throws IllegalArgumentException, IllegalAccessException {
-            final Object o = field().get(object());
+        public void validate(final Object object) throws IllegalArgumentException, IllegalAccessException {
+            final Kind kind = checkValue(field.get(object));
+            if (kind != null) {
+                throw new IllegalArgumentException(kind.message());
+            }
+        }
+        
+        /** 違反種別の取得（違反がなければnull） */
+        Kind check(final Object object) {
+            try {
+                return checkValue(field.get(object));
+            }
+            catch (final IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        
+        /** フィールド値の評価（違反がなければnull） */
+        private Kind checkValue(final Object o) {
             //null許容確認
             if (nullable == false) {
                 if (o == null) {
-                    throw new IllegalArgumentException(String.format("入力してください。",
-                                                                     object().getClass()
-                                                                             .getName()));
+                    return Kind.REQUIRED;
                 }
                 //String型の場合、空文字は不可
                 if (length != null && isEmpty((String) o)) {
-                    throw new IllegalArgumentException(String.format("入力してください。",
-                                                                     object().getClass()
-                                                                             .getName()));
+                    return Kind.REQUIRED;
                 }
             }
             //文字長確認
             if (o != null && length != null) {
                 final String value = (String) o;
                 if (value.length() > length) {
-                    throw new IllegalArgumentException(String.format("文字長が超過しています。",
-                                                                     o.getClass()
-                                                                      .getName(),
-                                                                     value));
+                    return Kind.TOO_LONG;
                 }
             }
+            return null;
         }
         
         /** フィールド */
@@ -121,14 +296,9 @@ public class ValueObjectValidation {
             return field;
         }
         
-        /** 実インスタンス */
-        public Object object() {
-            return object;
-        }
-        
         /** フィールド名 */
         public String name() {
-            return field().getName();
+            return field.getName();
         }
         
         /** 最大文字長 */
@@ -167,33 +337,73 @@ public class ValueObjectValidation {
         
     }
     
+    /** Fieldラッパークラス */
+    static class FieldInfo {
+        //フィールド定義
+        private final FieldMeta meta;
+        //実インスタンス
+        private final Object object;
+        
+        //インスタンス
+        public FieldInfo(final FieldMeta meta, final Object object) {
+            this.meta = meta;
+            this.object = object;
+        }
+        
+        /** バリデーション */
+        public void validate() throws IllegalArgumentException, IllegalAccessException {
+            meta.validate(object);
+        }
+        
+        /** フィールド */
+        public Field field() {
+            return meta.field();
+        }
+        
+        /** 実インスタンス */
+        public Object object() {
+            return object;
+        }
+        
+        /** フィールド名 */
+        public String name() {
+            return meta.name();
+        }
+        
+        /** 最大文字長 */
+        public Integer length() {
+            return meta.length();
+        }
+        
+        /** NULL許容可否 */
+        public boolean nullable() {
+            return meta.nullable();
+        }
+        
+    }
+    
     /** Fieldクラスコレクション */
     static class FieldInfoCollection {
-        private List<FieldInfo> fields;
+        private final ClassInfo classInfo;
+        private final Object object;
         
         //コンストラクタ
-        public FieldInfoCollection(final List<FieldInfo> fields) {
-            if (fields == null || fields.size() == 0) {
-                this.fields = Collections.emptyList();
-            }
-            this.fields = Collections.unmodifiableList(fields);
+        public FieldInfoCollection(final ClassInfo classInfo, final Object object) {
+            this.classInfo = classInfo;
+            this.object = object;
         }
         
         /** バリデーション */
         public void validate() throws IllegalArgumentException, IllegalAccessException {
-            for (final FieldInfo f : fields) {
-                f.validate();
+            for (final FieldMeta f : classInfo.fields()) {
+                f.validate(object);
             }
         }
         
         /** フィールドの取得 */
         public FieldInfo get(final String fieldName) {
-            for (final FieldInfo f : fields) {
-                if (f.name().toLowerCase().equals(fieldName.toLowerCase())) {
-                    return f;
-                }
-            }
-            return null;
+            final FieldMeta meta = classInfo.get(fieldName);
+            return meta != null ? new FieldInfo(meta, object) : null;
         }
     }
 }
@@ -2,13 +2,50 @@ package base.utils;
 
 import static org.apache.commons.lang.StringUtils.*;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.security.*;
+import java.security.spec.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.crypto.*;
+import javax.crypto.spec.*;
 
 /**
  * ハッシュ値生成ユーティリティ
  */
 public class Hash {
     
+    //ストリーム読み込み時のバッファサイズ
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //ファイルをメモリマップする際の1区画のサイズ
+    private static final long MAP_SIZE = 64L * 1024 * 1024;
+    //16進数変換テーブル
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    
+    /** パスワードハッシュの繰り返し回数の既定値 */
+    public static final int DEFAULT_ITERATIONS = 200000;
+    /** パスワードハッシュの繰り返し回数の下限 */
+    public static final int MIN_ITERATIONS = 10000;
+    /** パスワードハッシュの繰り返し回数の上限（保存値の改ざんによる過大な計算を防ぐ） */
+    public static final int MAX_ITERATIONS = 2000000;
+    //パスワードハッシュのアルゴリズム・鍵長（ビット）・ソルト長（バイト）
+    private static final String PBKDF2 = "PBKDF2WithHmacSHA1";
+    private static final int KEY_LENGTH = 160;
+    private static final int SALT_LENGTH = 16;
+    //ソルト生成
+    private static final SecureRandom RANDOM = new SecureRandom();
+    //一括生成で1タスクが受け持つ件数（これを超える場合に分割する）
+    private static final int BATCH_THRESHOLD = 4096;
+    //並列計算用プール（一括生成・分割ハッシュで共有）
+    static final ForkJoinPool POOL = new ForkJoinPool();
+    
     /**
      * ハッシュ値生成（MD5）
      * @param orgString 元文字列
@@ -24,20 +61,451 @@ public class Hash {
      */
     public static String generate(final String orgString,
                                   final HashAlgorithm algorithm) {
-        if (isEmpty(orgString) || algorithm == null) {
+        return generate(orgString, algorithm, Charset.defaultCharset());
+    }
+    
+    /**
+     * ハッシュ値生成
+     * @param orgString 元文字列
+     * @param algorithm ハッシュアルゴリズム
+     * @param charset 元文字列のバイト変換に用いる文字コード
+     */
+    public static String generate(final String orgString,
+                                  final HashAlgorithm algorithm,
+                                  final Charset charset) {
+        //ハッシュを16進数文字列に変換
+        return toHexString(generateBytes(orgString, algorithm, charset));
+    }
+    
+    /**
+     * ハッシュ値生成（16進数文字列化しない）
+     * @param orgString 元文字列
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static byte[] generateBytes(final String orgString,
+                                       final HashAlgorithm algorithm) {
+        return generateBytes(orgString, algorithm, Charset.defaultCharset());
+    }
+    
+    /**
+     * ハッシュ値生成（16進数文字列化しない）
+     * @param orgString 元文字列
+     * @param algorithm ハッシュアルゴリズム
+     * @param charset 元文字列のバイト変換に用いる文字コード
+     */
+    public static byte[] generateBytes(final String orgString,
+                                       final HashAlgorithm algorithm,
+                                       final Charset charset) {
+        if (isEmpty(orgString) || algorithm == null || charset == null) {
             throw new IllegalArgumentException();
         }
         //ハッシュ生成
-        final byte[] hash = toHash(orgString, algorithm.toString());
-        //ハッシュを16進数文字列に変換
-        return toHexString(hash);
+        return toHash(orgString.getBytes(charset), algorithm);
+    }
+    
+    /**
+     * ハッシュ値生成（ストリームの終端まで読み込む。ストリームはクローズしない）
+     * @param in 入力ストリーム
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static String generate(final InputStream in,
+                                  final HashAlgorithm algorithm) throws IOException {
+        if (in == null || algorithm == null) {
+            throw new IllegalArgumentException();
+        }
+        final MessageDigest md = algorithm.digest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            md.update(buffer, 0, read);
+        }
+        return toHexString(md.digest());
+    }
+    
+    /**
+     * ハッシュ値生成（positionからlimitまでを対象とし、バッファの位置は変更しない）
+     * @param buffer 入力バッファ（ダイレクトバッファ可）
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static String generate(final ByteBuffer buffer,
+                                  final HashAlgorithm algorithm) {
+        if (buffer == null || algorithm == null) {
+            throw new IllegalArgumentException();
+        }
+        final MessageDigest md = algorithm.digest();
+        md.update(buffer.duplicate());
+        return toHexString(md.digest());
+    }
+    
+    /**
+     * ハッシュ値生成（チャネルの終端まで読み込む。チャネルはクローズしない）
+     * @param channel 入力チャネル
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static String generate(final ReadableByteChannel channel,
+                                  final HashAlgorithm algorithm) throws IOException {
+        if (channel == null || algorithm == null) {
+            throw new IllegalArgumentException();
+        }
+        final MessageDigest md = algorithm.digest();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            md.update(buffer);
+            buffer.clear();
+        }
+        return toHexString(md.digest());
+    }
+    
+    /**
+     * ハッシュ値生成（ファイルを区画ごとにメモリマップして読み込むため、ファイルサイズによらずヒープ使用量は一定）
+     * @param file 対象ファイル
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static String generate(final Path file,
+                                  final HashAlgorithm algorithm) throws IOException {
+        if (file == null || algorithm == null) {
+            throw new IllegalArgumentException();
+        }
+        final MessageDigest md = algorithm.digest();
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            for (long position = 0; position < size; position += MAP_SIZE) {
+                md.update(channel.map(MapMode.READ_ONLY,
+                                      position,
+                                      Math.min(MAP_SIZE, size - position)));
+            }
+        }
+        finally {
+            channel.close();
+        }
+        return toHexString(md.digest());
+    }
+    
+    //-----------------------------------------
+    // 一括生成
+    //-----------------------------------------
+    
+    /**
+     * ハッシュ値一括生成（既定の文字コード）
+     * @param values 元文字列一覧（空文字・nullは不可）
+     * @param algorithm ハッシュアルゴリズム
+     * @return 入力と同順のハッシュ値一覧
+     */
+    public static List<String> generateAll(final Iterable<String> values,
+                                           final HashAlgorithm algorithm) {
+        return generateAll(values, algorithm, Charset.defaultCharset(), false);
+    }
+    
+    /**
+     * ハッシュ値一括生成
+     * <p>
+     * MessageDigest・文字コード変換器・変換先バッファを作業単位ごとに1つだけ用意し、使い回す。
+     * 結果はgenerate(String, HashAlgorithm, Charset)を1件ずつ呼び出した場合と同じ。
+     * </p>
+     * @param values 元文字列一覧（空文字・nullは不可）
+     * @param algorithm ハッシュアルゴリズム
+     * @param charset 元文字列のバイト変換に用いる文字コード
+     * @param parallel 件数が多い場合に複数コアに分割して生成するかどうか
+     * @return 入力と同順のハッシュ値一覧
+     */
+    public static List<String> generateAll(final Iterable<String> values,
+                                           final HashAlgorithm algorithm,
+                                           final Charset charset,
+                                           final boolean parallel) {
+        if (values == null || algorithm == null || charset == null) {
+            throw new IllegalArgumentException();
+        }
+        final String[] array = toArray(values);
+        final String[] hashes = new String[array.length];
+        if (parallel && array.length > BATCH_THRESHOLD) {
+            POOL.invoke(new BatchTask(array, hashes, 0, array.length, algorithm, charset));
+        }
+        else {
+            new BatchHasher(algorithm, charset).hash(array, hashes, 0, array.length);
+        }
+        return Arrays.asList(hashes);
+    }
+    
+    /** 文字列一覧の配列化 */
+    private static String[] toArray(final Iterable<String> values) {
+        if (values instanceof Collection) {
+            return ((Collection<String>) values).toArray(new String[0]);
+        }
+        final List<String> list = new ArrayList<String>();
+        for (final String value : values) {
+            list.add(value);
+        }
+        return list.toArray(new String[list.size()]);
+    }
+    
+    /** 一括生成の作業単位（MessageDigest・変換器・バッファを使い回す） */
+    private static class BatchHasher {
+        private final MessageDigest md;
+        private final CharsetEncoder encoder;
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+        
+        BatchHasher(final HashAlgorithm algorithm, final Charset charset) {
+            md = algorithm.digest();
+            //String.getBytesと同様、変換できない文字は置換文字とする
+            encoder = charset.newEncoder()
+                             .onMalformedInput(CodingErrorAction.REPLACE)
+                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        
+        /** 指定範囲のハッシュ値を生成 */
+        void hash(final String[] values, final String[] hashes, final int from, final int to) {
+            for (int i = from; i < to; i++) {
+                final String value = values[i];
+                if (isEmpty(value)) {
+                    throw new IllegalArgumentException("空の文字列は指定できません：" + i);
+                }
+                md.update(encode(value));
+                hashes[i] = toHexString(md.digest());
+            }
+        }
+        
+        /** バッファへ直接バイト変換 */
+        private ByteBuffer encode(final String value) {
+            final int required = (int) Math.ceil(value.length() * (double) encoder.maxBytesPerChar());
+            if (buffer.capacity() < required) {
+                buffer = ByteBuffer.allocate(Math.max(required, buffer.capacity() * 2));
+            }
+            buffer.clear();
+            encoder.reset();
+            final CharBuffer in = CharBuffer.wrap(value);
+            CoderResult result = encoder.encode(in, buffer, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(buffer);
+            }
+            if (result.isError()) {
+                //置換設定のため通常は発生しない
+                throw new IllegalArgumentException(result.toString());
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+    
+    /** 一括生成の並列タスク（範囲を二分し、末端ごとに作業単位を1つ用意する） */
+    private static class BatchTask extends RecursiveAction {
+        private final String[] values;
+        private final String[] hashes;
+        private final int from;
+        private final int to;
+        private final HashAlgorithm algorithm;
+        private final Charset charset;
+        
+        BatchTask(final String[] values,
+                  final String[] hashes,
+                  final int from,
+                  final int to,
+                  final HashAlgorithm algorithm,
+                  final Charset charset) {
+            this.values = values;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+            this.algorithm = algorithm;
+            this.charset = charset;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                new BatchHasher(algorithm, charset).hash(values, hashes, from, to);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(values, hashes, from, middle, algorithm, charset),
+                      new BatchTask(values, hashes, middle, to, algorithm, charset));
+        }
+    }
+    
+    //-----------------------------------------
+    // パスワードハッシュ
+    //-----------------------------------------
+    
+    /**
+     * パスワードハッシュ生成（PBKDF2、繰り返し回数は既定値）
+     * @param password パスワード
+     * @return "アルゴリズム$繰り返し回数$ソルト$ハッシュ値" 形式の文字列（ソルト・ハッシュ値は16進数）
+     */
+    public static String hashPassword(final String password) {
+        return hashPassword(password, DEFAULT_ITERATIONS);
+    }
+    
+    /**
+     * パスワードハッシュ生成（PBKDF2、ソルトは毎回ランダムに生成する）
+     * @param password パスワード
+     * @param iterations 繰り返し回数（MIN_ITERATIONS〜MAX_ITERATIONS。大きいほど総当たりに強く、処理時間も長くなる）
+     * @return "アルゴリズム$繰り返し回数$ソルト$ハッシュ値" 形式の文字列（ソルト・ハッシュ値は16進数）
+     */
+    public static String hashPassword(final String password, final int iterations) {
+        if (isEmpty(password) || iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw new IllegalArgumentException();
+        }
+        final byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        final byte[] hash = pbkdf2(password, salt, iterations);
+        return PBKDF2 + "$" + iterations + "$" + toHexString(salt) + "$" + toHexString(hash);
+    }
+    
+    /**
+     * パスワード照合（比較時間は一致箇所によらず一定）
+     * <p>
+     * アルゴリズム・繰り返し回数・鍵長が hashPassword で生成しうる範囲にない文字列は形式エラーとする。
+     * </p>
+     * @param password 入力されたパスワード
+     * @param hashed hashPasswordで生成した文字列
+     */
+    public static boolean verifyPassword(final String password, final String hashed) {
+        if (password == null) {
+            throw new IllegalArgumentException();
+        }
+        final String[] parts = parse(hashed);
+        final byte[] expected = fromHexString(parts[3]);
+        final byte[] actual = pbkdf2(password, fromHexString(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+    
+    /**
+     * 再ハッシュが必要かどうか（照合成功時に繰り返し回数を引き上げる場合に利用する）
+     * @param hashed hashPasswordで生成した文字列
+     * @param iterations 現在の繰り返し回数
+     */
+    public static boolean needsRehash(final String hashed, final int iterations) {
+        return Integer.parseInt(parse(hashed)[1]) < iterations;
+    }
+    
+    /**
+     * パスワードハッシュ生成（専用スレッドで非同期に実行する）
+     * @throws RejectedExecutionException 待ち行列が上限に達している場合
+     */
+    public static Future<String> hashPasswordAsync(final String password, final int iterations) {
+        return passwordExecutor().submit(new Callable<String>() {
+            
+            @Override
+            public String call() {
+                return hashPassword(password, iterations);
+            }
+        });
+    }
+    
+    /**
+     * パスワード照合（専用スレッドで非同期に実行する）
+     * <p>
+     * コントローラではawait(Future)で待機すれば、処理中にリクエストスレッドを占有しない。
+     * </p>
+     * @throws RejectedExecutionException 待ち行列が上限に達している場合
+     */
+    public static Future<Boolean> verifyPasswordAsync(final String password, final String hashed) {
+        return passwordExecutor().submit(new Callable<Boolean>() {
+            
+            @Override
+            public Boolean call() {
+                return verifyPassword(password, hashed);
+            }
+        });
+    }
+    
+    /**
+     * 非同期のパスワードハッシュ用スレッドを停止（処理中・待機中のものは実行する）
+     * <p>
+     * アプリケーション停止時に HashShutdownJob から呼び出される。停止後に非同期処理を呼び出すとスレッドを作り直す。
+     * </p>
+     */
+    public static void shutdown() {
+        synchronized (PasswordExecutor.class) {
+            if (PasswordExecutor.instance != null) {
+                PasswordExecutor.instance.shutdown();
+                PasswordExecutor.instance = null;
+            }
+        }
+    }
+    
+    /** パスワードハッシュ用スレッドプール（初回利用時に生成） */
+    private static ExecutorService passwordExecutor() {
+        synchronized (PasswordExecutor.class) {
+            if (PasswordExecutor.instance == null) {
+                PasswordExecutor.instance = PasswordExecutor.create();
+            }
+            return PasswordExecutor.instance;
+        }
+    }
+    
+    /** PBKDF2による鍵導出 */
+    private static byte[] pbkdf2(final String password,
+                                 final byte[] salt,
+                                 final int iterations) {
+        final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(PBKDF2).generateSecret(spec).getEncoded();
+        }
+        catch (final NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+        catch (final InvalidKeySpecException e) {
+            throw new IllegalArgumentException(e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+    
+    /** パスワードハッシュ文字列の分解（アルゴリズム・繰り返し回数・ソルト・ハッシュ値） */
+    private static String[] parse(final String hashed) {
+        final String[] parts = hashed != null ? hashed.split("\\$") : new String[0];
+        if (parts.length != 4
+                || parts[0].equals(PBKDF2) == false
+                || isNumeric(parts[1]) == false
+                || parts[1].length() > String.valueOf(MAX_ITERATIONS).length()
+                || Integer.parseInt(parts[1]) < MIN_ITERATIONS
+                || Integer.parseInt(parts[1]) > MAX_ITERATIONS
+                || parts[3].length() != KEY_LENGTH / 4) {
+            throw new IllegalArgumentException("パスワードハッシュの形式が正しくありません");
+        }
+        return parts;
+    }
+    
+    /** パスワードハッシュ用スレッドプール（スレッド数・待ち行列とも上限あり） */
+    private static class PasswordExecutor {
+        //スレッド数（CPU数）
+        static final int THREADS = Runtime.getRuntime().availableProcessors();
+        //待ち行列の上限（超過分は即座に拒否する）
+        static final int QUEUE_SIZE = THREADS * 64;
+        
+        //生成済みのスレッドプール（停止後はnull）
+        static ExecutorService instance;
+        
+        static ExecutorService create() {
+            return new ThreadPoolExecutor(THREADS,
+                                          THREADS,
+                                          0L,
+                                          TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                                          new DaemonThreadFactory(),
+                                          new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+    
+    /** パスワードハッシュ用スレッド生成（アプリケーション停止を妨げないようデーモンスレッドとする） */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "hash-password-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
     
     /** ハッシュ値取得 */
-    private static byte[] toHash(final String orgString, final String algorithm) {
-        final MessageDigest md = getInstance(algorithm);
-        md.reset();
-        md.update(orgString.getBytes());
+    private static byte[] toHash(final byte[] bytes, final HashAlgorithm algorithm) {
+        final MessageDigest md = algorithm.digest();
+        md.update(bytes);
         return md.digest();
     }
     
@@ -53,15 +521,32 @@ public class Hash {
         return md;
     }
     
+    /** 16進数文字列をバイト列化 */
+    static byte[] fromHexString(final String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException(hex);
+        }
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(hex.charAt(i * 2), 16);
+            final int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException(hex);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+    
     /** ハッシュ値を16進数文字列化 */
-    private static String toHexString(final byte[] hash) {
-        final StringBuffer sb = new StringBuffer();
+    static String toHexString(final byte[] hash) {
         final int cnt = hash.length;
+        final char[] hex = new char[cnt * 2];
         for (int i = 0; i < cnt; i++) {
-            sb.append(Integer.toHexString(hash[i] >> 4 & 0x0F));
-            sb.append(Integer.toHexString(hash[i] & 0x0F));
+            hex[i * 2] = HEX[hash[i] >> 4 & 0x0F];
+            hex[i * 2 + 1] = HEX[hash[i] & 0x0F];
         }
-        return sb.toString();
+        return new String(hex);
     }
     
     /** ハッシュアルゴリズム */
@@ -74,9 +559,24 @@ public class Hash {
         SHA512("SHA-512");
         
         private final String strValue;
+        //スレッドごとに再利用するMessageDigest（プロバイダ検索を初回のみとする）
+        private final ThreadLocal<MessageDigest> digests;
         
         private HashAlgorithm(final String strValue) {
             this.strValue = strValue;
+            digests = new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    return getInstance(strValue);
+                }
+            };
+        }
+        
+        /** 現在のスレッド用のMessageDigest（リセット済み） */
+        MessageDigest digest() {
+            final MessageDigest md = digests.get();
+            md.reset();
+            return md;
         }
         
         @Override
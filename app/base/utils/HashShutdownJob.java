@@ -0,0 +1,22 @@
+package base.utils;
+
+import play.db.jpa.*;
+import play.jobs.*;
+
+/**
+ * パスワードハッシュ用スレッドの停止ジョブ
+ * <p>
+ * アプリケーション停止時（開発モードの再読み込みを含む）に実行し、Hash の非同期処理用スレッドを停止する。
+ * DBを使わないため、トランザクションは開始しない。
+ * </p>
+ */
+@OnApplicationStop
+@NoTransaction
+public class HashShutdownJob extends Job<Void> {
+    
+    @Override
+    public void doJob() {
+        Hash.shutdown();
+    }
+    
+}
@@ -0,0 +1,294 @@
+package base.utils;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import base.utils.Hash.HashAlgorithm;
+
+/**
+ * 分割ハッシュ（Merkleツリー）
+ * <p>
+ * 入力を固定長のチャンクに分割して並列にハッシュ化し、ツリー状に結合する。
+ * 出力形式は以下のとおりで、同じアルゴリズム・チャンクサイズであれば常に同じ値となる。
+ * </p>
+ * <ol>
+ * <li>入力を先頭からchunkSizeバイトごとに分割する（最後のチャンクは短くてよい。空の入力は空のチャンク1つとする）</li>
+ * <li>各チャンクのハッシュ：leaf = H(0x00 || chunk)</li>
+ * <li>隣り合う2つを左から順に結合：node = H(0x01 || left || right)。
+ * 奇数個の場合、末尾はそのまま上の段に繰り上げる</li>
+ * <li>1つになるまで繰り返した値をルートとする</li>
+ * </ol>
+ * <p>
+ * 値は小文字16進数文字列。チャンクごとのハッシュを保存しておけば、
+ * changedChunks()で変更のあったチャンクのみを特定できる。
+ * </p>
+ */
+public class TreeHash {
+    
+    /** チャンクサイズの既定値（4MB） */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    
+    //チャンク・ノードの接頭辞（葉と節の値が衝突しないよう区別する）
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+    
+    private final HashAlgorithm algorithm;
+    private final int chunkSize;
+    private final byte[][] leaves;
+    private final byte[] root;
+    
+    //コンストラクタ
+    private TreeHash(final HashAlgorithm algorithm, final int chunkSize, final byte[][] leaves) {
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.leaves = leaves;
+        this.root = root(algorithm, leaves);
+    }
+    
+    /**
+     * バッファの分割ハッシュ（positionからlimitまでを対象とし、バッファの位置は変更しない）
+     * @param buffer 入力バッファ
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static TreeHash of(final ByteBuffer buffer, final HashAlgorithm algorithm) {
+        return of(buffer, algorithm, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * バッファの分割ハッシュ（positionからlimitまでを対象とし、バッファの位置は変更しない）
+     * @param buffer 入力バッファ
+     * @param algorithm ハッシュアルゴリズム
+     * @param chunkSize チャンクサイズ（バイト）
+     */
+    public static TreeHash of(final ByteBuffer buffer, final HashAlgorithm algorithm, final int chunkSize) {
+        if (buffer == null || algorithm == null || chunkSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        final ByteBuffer source = buffer.slice();
+        final byte[][] leaves = new byte[chunkCount(source.remaining(), chunkSize)][];
+        final ChunkSource chunks = new ChunkSource() {
+            
+            @Override
+            public ByteBuffer chunk(final int index) {
+                final ByteBuffer chunk = source.duplicate();
+                final int from = index * chunkSize;
+                chunk.position(from);
+                chunk.limit((int) Math.min((long) from + chunkSize, chunk.limit()));
+                return chunk;
+            }
+        };
+        try {
+            return new TreeHash(algorithm, chunkSize, leaves(algorithm, chunks, leaves));
+        }
+        catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    /**
+     * ファイルの分割ハッシュ（チャンクごとにメモリマップして読み込む）
+     * @param file 対象ファイル
+     * @param algorithm ハッシュアルゴリズム
+     */
+    public static TreeHash of(final Path file, final HashAlgorithm algorithm) throws IOException {
+        return of(file, algorithm, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * ファイルの分割ハッシュ（チャンクごとにメモリマップして読み込む）
+     * @param file 対象ファイル
+     * @param algorithm ハッシュアルゴリズム
+     * @param chunkSize チャンクサイズ（バイト）
+     */
+    public static TreeHash of(final Path file, final HashAlgorithm algorithm, final int chunkSize) throws IOException {
+        if (file == null || algorithm == null || chunkSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            final byte[][] leaves = new byte[chunkCount(size, chunkSize)][];
+            final ChunkSource chunks = new ChunkSource() {
+                
+                @Override
+                public ByteBuffer chunk(final int index) throws IOException {
+                    final long position = (long) index * chunkSize;
+                    return channel.map(MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+                }
+            };
+            return new TreeHash(algorithm, chunkSize, leaves(algorithm, chunks, leaves));
+        }
+        finally {
+            channel.close();
+        }
+    }
+    
+    // アクセサ -------------------------------------
+    
+    /** ルートハッシュ（16進数文字列） */
+    public String root() {
+        return Hash.toHexString(root);
+    }
+    
+    /** ハッシュアルゴリズム */
+    public HashAlgorithm algorithm() {
+        return algorithm;
+    }
+    
+    /** チャンクサイズ */
+    public int chunkSize() {
+        return chunkSize;
+    }
+    
+    /** チャンク数 */
+    public int chunkCount() {
+        return leaves.length;
+    }
+    
+    /** チャンクのハッシュ（16進数文字列） */
+    public String chunk(final int index) {
+        return Hash.toHexString(leaves[index]);
+    }
+    
+    /** 全チャンクのハッシュ（16進数文字列） */
+    public List<String> chunks() {
+        final List<String> chunks = new ArrayList<String>(leaves.length);
+        for (final byte[] leaf : leaves) {
+            chunks.add(Hash.toHexString(leaf));
+        }
+        return chunks;
+    }
+    
+    /**
+     * 以前の結果から変更のあったチャンクの位置
+     * @param previous 同じアルゴリズム・チャンクサイズで算出した以前の結果
+     * @return 変更・追加されたチャンクの位置（削除されたチャンクは含まない）
+     */
+    public List<Integer> changedChunks(final TreeHash previous) {
+        if (previous == null || previous.algorithm != algorithm || previous.chunkSize != chunkSize) {
+            throw new IllegalArgumentException();
+        }
+        final List<Integer> changed = new ArrayList<Integer>();
+        for (int i = 0; i < leaves.length; i++) {
+            if (i >= previous.leaves.length || Arrays.equals(leaves[i], previous.leaves[i]) == false) {
+                changed.add(i);
+            }
+        }
+        return changed;
+    }
+    
+    @Override
+    public String toString() {
+        return root();
+    }
+    
+    //-----------------------------------------
+    // 算出処理
+    //-----------------------------------------
+    
+    /** チャンク数（空の入力は1） */
+    private static int chunkCount(final long size, final int chunkSize) {
+        final long count = Math.max(1, (size + chunkSize - 1) / chunkSize);
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("チャンク数が多すぎます：" + count);
+        }
+        return (int) count;
+    }
+    
+    /** 全チャンクのハッシュを並列に算出 */
+    private static byte[][] leaves(final HashAlgorithm algorithm,
+                                   final ChunkSource chunks,
+                                   final byte[][] leaves) throws IOException {
+        try {
+            Hash.POOL.invoke(new LeafTask(algorithm, chunks, leaves, 0, leaves.length));
+        }
+        catch (final RuntimeException e) {
+            //読み込みエラーは呼び出し元にIOExceptionとして返す
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                }
+            }
+            throw e;
+        }
+        return leaves;
+    }
+    
+    /** ルートハッシュ（下の段から順に2つずつ結合する） */
+    private static byte[] root(final HashAlgorithm algorithm, final byte[][] leaves) {
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            final byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                final int left = i * 2;
+                if (left + 1 < level.length) {
+                    final MessageDigest md = algorithm.digest();
+                    md.update(NODE);
+                    md.update(level[left]);
+                    md.update(level[left + 1]);
+                    next[i] = md.digest();
+                }
+                else {
+                    //末尾の余りはそのまま繰り上げる
+                    next[i] = level[left];
+                }
+            }
+            level = next;
+        }
+        return level[0];
+    }
+    
+    /** チャンクの読み込み元 */
+    private static interface ChunkSource {
+        
+        /** 指定位置のチャンク */
+        ByteBuffer chunk(int index) throws IOException;
+    }
+    
+    /** チャンクのハッシュを並列に算出するタスク（範囲を二分し、1チャンクずつ算出する） */
+    private static class LeafTask extends RecursiveAction {
+        private final HashAlgorithm algorithm;
+        private final ChunkSource chunks;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+        
+        LeafTask(final HashAlgorithm algorithm,
+                 final ChunkSource chunks,
+                 final byte[][] leaves,
+                 final int from,
+                 final int to) {
+            this.algorithm = algorithm;
+            this.chunks = chunks;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    final MessageDigest md = algorithm.digest();
+                    md.update(LEAF);
+                    md.update(chunks.chunk(from));
+                    leaves[from] = md.digest();
+                }
+                catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new LeafTask(algorithm, chunks, leaves, from, middle),
+                      new LeafTask(algorithm, chunks, leaves, middle, to));
+        }
+    }
+    
+}
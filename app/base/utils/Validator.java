@@ -2,8 +2,14 @@ package base.utils;
 
 import static org.apache.commons.lang.StringUtils.*;
 
+import java.util.concurrent.*;
+import java.util.regex.*;
+
 public abstract class Validator {
     
+    //正規表現ごとのコンパイル済みパターン（コンパイルは正規表現ごとに一度だけ）
+    private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<String, Pattern>();
+    
     /** 評価正規表現 */
     protected abstract String regex();
     
@@ -12,16 +18,50 @@ public abstract class Validator {
         if (isEmpty(value)) {
             return;
         }
-        if (value.matches(regex()) == false) {
+        if (matches(value) == false) {
             throw new IllegalArgumentException("入力が正しくありません");
         }
     }
     
+    /** 書式に一致するかどうか（単純な書式はサブクラスで文字走査による判定に置き換える） */
+    protected boolean matches(final String value) {
+        return pattern().matcher(value).matches();
+    }
+    
+    /** コンパイル済み評価正規表現 */
+    protected Pattern pattern() {
+        final String regex = regex();
+        final Pattern pattern = PATTERNS.get(regex);
+        if (pattern != null) {
+            return pattern;
+        }
+        final Pattern compiled = Pattern.compile(regex);
+        final Pattern previous = PATTERNS.putIfAbsent(regex, compiled);
+        return previous != null ? previous : compiled;
+    }
+    
     /** 郵便番号 */
     public static class Zip extends Validator {
+        //桁数
+        private static final int LENGTH = 7;
+        
         @Override
         protected String regex() {
             return "^[0-9]{7}$";
         }
+        
+        @Override
+        protected boolean matches(final String value) {
+            if (value.length() != LENGTH) {
+                return false;
+            }
+            for (int i = 0; i < LENGTH; i++) {
+                final char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
@@ -0,0 +1,22 @@
+package base.benchmark;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * ベンチマーク起動
+ * <p>
+ * JMHのコマンドラインオプションに加え、スループットと割り当て量（gcプロファイラ）を常に計測する。
+ * </p>
+ */
+public class BenchmarkMain {
+    
+    public static void main(final String[] args) throws Exception {
+        final Options options = new OptionsBuilder().parent(new CommandLineOptions(args))
+                                                    .addProfiler(GCProfiler.class)
+                                                    .build();
+        new Runner(options).run();
+    }
+    
+}
@@ -0,0 +1,191 @@
+package base.ddd;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.*;
+import org.hibernate.cfg.*;
+import org.hibernate.dialect.*;
+import org.hibernate.ejb.*;
+import org.hibernate.engine.EntityEntry;
+import org.hibernate.engine.SessionImplementor;
+import org.openjdk.jmh.annotations.*;
+
+import play.db.jpa.*;
+
+/**
+ * 読み取り専用読み込みのベンチマーク
+ * <p>
+ * Play外で実行するため、JPAのコンテキスト（JPA.local）を直接設定し、
+ * 読み取り専用は GenericModels.findReadOnly と同じ ReadOnlyQuery.find、通常は同条件のJPQLで読み込む。
+ * retained は読み込み後も開いたままの永続化コンテキストが保持するヒープ量（GC後の使用量の差、結果のエンティティを含む）と、
+ * 読み込み時点の値（スナップショット）を保持するエンティティ数を記録する。
+ * いずれも計測反復（1回の読み込み）の合計が出力されるため、Cnt で割った値が1回あたりとなる。
+ * flush はダーティチェックの時間を計測する。
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadOnlyBenchmark {
+    
+    @Param({"1000", "5000"})
+    public int rows;
+    
+    @Param({"false", "true"})
+    public boolean readOnly;
+    
+    private EntityManagerFactory factory;
+    
+    @Setup
+    public void setup() {
+        factory = new Ejb3Configuration().addAnnotatedClass(BenchmarkEntity.class)
+                                         .setProperty(Environment.DIALECT, H2Dialect.class.getName())
+                                         .setProperty(Environment.DRIVER, "org.h2.Driver")
+                                         .setProperty(Environment.URL, "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1")
+                                         .setProperty(Environment.USER, "sa")
+                                         .setProperty(Environment.HBM2DDL_AUTO, "create")
+                                         .setProperty(Environment.STATEMENT_BATCH_SIZE, "50")
+                                         .buildEntityManagerFactory();
+        final EntityManager em = factory.createEntityManager();
+        em.getTransaction().begin();
+        for (int i = 0; i < rows; i++) {
+            em.persist(new BenchmarkEntity("r" + i));
+            if (i % 50 == 49) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.getTransaction().commit();
+        em.close();
+    }
+    
+    @TearDown
+    public void tearDown() {
+        factory.close();
+    }
+    
+    /** 全件の読み込み（永続化コンテキストが保持するヒープ量・スナップショット数を記録） */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    public int retained(final Footprint footprint) {
+        final long before = usedHeap();
+        final EntityManager em = open();
+        try {
+            final int size = load().size();
+            footprint.retainedBytes = usedHeap() - before;
+            footprint.snapshots = snapshotCount(em);
+            return size;
+        }
+        finally {
+            close(em);
+        }
+    }
+    
+    /** 読み込み済みの全件に対するフラッシュ */
+    @Benchmark
+    public void flush(final Loaded loaded) {
+        loaded.em.flush();
+    }
+    
+    /** JPAのコンテキストを開始（Playのリクエストと同じく、トランザクションを開始する） */
+    private EntityManager open() {
+        final JPA context = new JPA();
+        context.entityManager = factory.createEntityManager();
+        context.entityManager.getTransaction().begin();
+        JPA.local.set(context);
+        return context.entityManager;
+    }
+    
+    private static void close(final EntityManager em) {
+        JPA.local.remove();
+        em.getTransaction().rollback();
+        em.close();
+    }
+    
+    private List<BenchmarkEntity> load() {
+        if (readOnly) {
+            return ReadOnlyQuery.find(BenchmarkEntity.class, null);
+        }
+        return JPA.em().createQuery("from " + BenchmarkEntity.class.getName(), BenchmarkEntity.class).getResultList();
+    }
+    
+    //スナップショットを保持するエンティティ数
+    private static int snapshotCount(final EntityManager em) {
+        int count = 0;
+        final SessionImplementor session = (SessionImplementor) em.getDelegate();
+        for (final Object entry : session.getPersistenceContext().getEntityEntries().values()) {
+            if (((EntityEntry) entry).getLoadedState() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    //GC後のヒープ使用量
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /** 1回の読み込みごとの計測値（反復ごとに記録し、JMHが合計を出力する） */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long retainedBytes;
+        public long snapshots;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+            snapshots = 0;
+        }
+    }
+    
+    /** 計測ごとに全件を読み込んだ永続化コンテキスト */
+    @State(Scope.Thread)
+    public static class Loaded {
+        private EntityManager em;
+        
+        @Setup(Level.Invocation)
+        public void open(final ReadOnlyBenchmark benchmark) {
+            em = benchmark.open();
+            benchmark.load();
+        }
+        
+        @TearDown(Level.Invocation)
+        public void close() {
+            ReadOnlyBenchmark.close(em);
+        }
+    }
+    
+    /** 計測用エンティティ */
+    @javax.persistence.Entity(name = "BenchmarkEntity")
+    @GenericGenerator(name = GenericModels.ID_GENERATOR, strategy = "native")
+    public static class BenchmarkEntity extends GenericModels {
+        
+        public String name;
+        
+        public String memo;
+        
+        protected BenchmarkEntity() {}
+        
+        BenchmarkEntity(final String name) {
+            this.name = name;
+        }
+        
+        @Override
+        public void isSatisfied() {}
+    }
+    
+}
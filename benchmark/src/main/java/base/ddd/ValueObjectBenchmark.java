@@ -0,0 +1,195 @@
+package base.ddd;
+
+import java.util.concurrent.*;
+
+import javax.persistence.*;
+
+import org.apache.commons.lang3.builder.*;
+import org.openjdk.jmh.annotations.*;
+
+import base.ddd.ValueObjectValidation.FieldInfoCollection;
+
+/**
+ * 値オブジェクトのベンチマーク
+ * <p>
+ * Play外で実行するためエンハンサは適用されず、Name等はリフレクション実装で動作する。
+ * EnhancedNameはエンハンサが生成するコードと同等のフックを手書きしたもので、両者の差を比較できる。
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValueObjectBenchmark {
+    
+    private Name name;
+    private Name sameName;
+    private Name otherName;
+    private EnhancedName enhancedName;
+    private EnhancedName enhancedSameName;
+    private Person person;
+    private FieldInfoCollection fields;
+    
+    @Setup
+    public void setup() {
+        name = new Name(new FirstName("太郎"), new LastName("山田"));
+        sameName = new Name(new FirstName("太郎"), new LastName("山田"));
+        otherName = new Name(new FirstName("花子"), new LastName("山田"));
+        enhancedName = new EnhancedName("太郎", "山田");
+        enhancedSameName = new EnhancedName("太郎", "山田");
+        person = new Person("P0001", "山田太郎", "1000001", 30);
+        fields = person.fields();
+    }
+    
+    // equals/hashCode/toString -------------------------------------
+    
+    @Benchmark
+    public boolean equalsSame() {
+        return name.equals(sameName);
+    }
+    
+    @Benchmark
+    public boolean equalsDifferent() {
+        return name.equals(otherName);
+    }
+    
+    @Benchmark
+    public boolean equalsEnhanced() {
+        return enhancedName.equals(enhancedSameName);
+    }
+    
+    @Benchmark
+    public int hashCodeReflection() {
+        return name.hashCode();
+    }
+    
+    @Benchmark
+    public int hashCodeEnhanced() {
+        return enhancedName.hashCode();
+    }
+    
+    /** 比較用：ビルダーを直接使った場合 */
+    @Benchmark
+    public int hashCodeBuilder() {
+        return HashCodeBuilder.reflectionHashCode(name);
+    }
+    
+    @Benchmark
+    public String toStringReflection() {
+        return name.toString();
+    }
+    
+    @Benchmark
+    public String toStringEnhanced() {
+        return enhancedName.toString();
+    }
+    
+    // バリデーション -------------------------------------
+    
+    @Benchmark
+    public Person validate() {
+        person.validate();
+        return person;
+    }
+    
+    @Benchmark
+    public Object fieldsGet() {
+        return fields.get("zipCode");
+    }
+    
+    @Benchmark
+    public Object fieldsGetIgnoreCase() {
+        return fields.get("ZIPCODE");
+    }
+    
+    //-----------------------------------------
+    // ベンチマーク用VO（ValueObjectValidationTestのフィクスチャと同構成）
+    //-----------------------------------------
+    
+    @Embeddable
+    static class FirstName extends ValueObject {
+        public final String firstName;
+        
+        public FirstName(final String firstName) {
+            this.firstName = firstName;
+        }
+    }
+    
+    @Embeddable
+    static class LastName extends ValueObject {
+        public final String lastName;
+        
+        public LastName(final String lastName) {
+            this.lastName = lastName;
+        }
+    }
+    
+    static class Name extends ValueObject {
+        @Embedded
+        public final FirstName firstName;
+        @Embedded
+        public final LastName lastName;
+        
+        public Name(final FirstName firstName, final LastName lastName) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+        }
+    }
+    
+    /** エンハンサ適用後と同等のVO */
+    static class EnhancedName extends ValueObject {
+        public final String firstName;
+        public final String lastName;
+        
+        public EnhancedName(final String firstName, final String lastName) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+        }
+        
+        @Override
+        protected boolean fieldsEquals(final Object o) {
+            final EnhancedName other = (EnhancedName) o;
+            return (firstName == null ? other.firstName == null : firstName.equals(other.firstName))
+                    && (lastName == null ? other.lastName == null : lastName.equals(other.lastName));
+        }
+        
+        @Override
+        protected int fieldsHashCode() {
+            int hash = 17;
+            hash = hash * 37 + (firstName == null ? 0 : firstName.hashCode());
+            hash = hash * 37 + (lastName == null ? 0 : lastName.hashCode());
+            return hash;
+        }
+        
+        @Override
+        protected String fieldsToString() {
+            return new StringBuilder("ValueObjectBenchmark.EnhancedName[firstName=").append((Object) firstName)
+                                                                                .append(",lastName=")
+                                                                                .append((Object) lastName)
+                                                                                .append(']')
+                                                                                .toString();
+        }
+    }
+    
+    /** バリデーション用VO */
+    static class Person extends ValueObject {
+        @Column(nullable = false, length = 5)
+        public final String code;
+        @Column(nullable = false, length = 40)
+        public final String fullName;
+        @Column(length = 7)
+        public final String zipCode;
+        @Column(nullable = false)
+        public final Integer age;
+        
+        public Person(final String code, final String fullName, final String zipCode, final Integer age) {
+            this.code = code;
+            this.fullName = fullName;
+            this.zipCode = zipCode;
+            this.age = age;
+        }
+    }
+    
+}
@@ -0,0 +1,51 @@
+package base.utils;
+
+import java.nio.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import base.utils.Hash.HashAlgorithm;
+
+/** ハッシュ生成のベンチマーク */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HashBenchmark {
+    
+    @Param({"MD5", "SHA1", "SHA256", "SHA512"})
+    public HashAlgorithm algorithm;
+    
+    //短い文字列（パスワード・トークン相当）と64KBのバイナリ
+    @Param({"16", "65536"})
+    public int size;
+    
+    private String text;
+    private ByteBuffer buffer;
+    
+    @Setup
+    public void setup() {
+        final StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        text = sb.toString();
+        final byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        buffer = ByteBuffer.wrap(bytes);
+    }
+    
+    @Benchmark
+    public String generateString() {
+        return Hash.generate(text, algorithm);
+    }
+    
+    @Benchmark
+    public String generateBuffer() {
+        return Hash.generate(buffer, algorithm);
+    }
+    
+}
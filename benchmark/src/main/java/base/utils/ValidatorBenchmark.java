@@ -0,0 +1,45 @@
+package base.utils;
+
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/** 入力値検証のベンチマーク */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidatorBenchmark {
+    
+    @Param({"1000001", "100-0001", "abcdefg"})
+    public String zip;
+    
+    private final Validator.Zip validator = new Validator.Zip();
+    
+    /** 評価（不正値の場合は例外の生成を含む） */
+    @Benchmark
+    public boolean zipIs() {
+        try {
+            validator.is(zip);
+            return true;
+        }
+        catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    /** 文字走査による判定 */
+    @Benchmark
+    public boolean zipMatches() {
+        return validator.matches(zip);
+    }
+    
+    /** 比較用：正規表現による判定 */
+    @Benchmark
+    public boolean zipRegex() {
+        return validator.pattern().matcher(zip).matches();
+    }
+    
+}
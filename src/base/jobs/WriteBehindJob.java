@@ -0,0 +1,21 @@
+package base.jobs;
+
+import play.db.jpa.*;
+import play.jobs.*;
+
+/**
+ * 遅延書き込みジョブ
+ * <p>
+ * WriteBehindPlugin が playbase.writebehind.interval の間隔で実行し、キュー内のエンティティを登録する。
+ * 登録はバッチごとに独自のトランザクションで行うため、ジョブとしてのトランザクションは開始しない。
+ * </p>
+ */
+@NoTransaction
+public class WriteBehindJob extends Job<Void> {
+    
+    @Override
+    public void doJob() {
+        WriteBehindQueue.flush();
+    }
+    
+}
@@ -0,0 +1,254 @@
+package base.jobs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import javax.persistence.*;
+
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.metadata.*;
+
+import play.*;
+import play.db.jpa.*;
+
+import base.metrics.*;
+
+/**
+ * 遅延書き込みキュー
+ * <p>
+ * 新規エンティティを上限付きのメモリ上のキューに保持し、
+ * バックグラウンドのジョブ（WriteBehindJob）が一定件数ごとのトランザクションでまとめて登録する。
+ * キューが満杯の場合、登録側は空きが出るまで一定時間待ち、それでも空かなければ IllegalStateException となる。
+ * 書き込みに失敗したバッチは1件ずつのトランザクションで登録し直し、それでも失敗したエンティティのみ破棄して、
+ * 件数を記録してログに出力する。
+ * 登録は追加元とは別のセッションで行うため、追加元のセッションで読み込んだエンティティをカスケード保存の関連に含めないこと
+ * （GenericModels.saveLater() では追加前に確認する）。
+ * </p>
+ * @see base.plugins.WriteBehindPlugin
+ */
+public final class WriteBehindQueue {
+    
+    /** キュー容量の既定値 */
+    public static final int DEFAULT_CAPACITY = 10000;
+    /** 1トランザクションで登録する件数の既定値 */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    /** キューが満杯の場合に空きを待つ時間の既定値（ミリ秒） */
+    public static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 1000;
+    
+    private static volatile BlockingQueue<JPABase> queue = new ArrayBlockingQueue<JPABase>(DEFAULT_CAPACITY);
+    private static volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private static volatile long offerTimeoutMillis = DEFAULT_OFFER_TIMEOUT_MILLIS;
+    
+    //書き込みは同時に1スレッドのみ
+    private static final Object DRAIN_LOCK = new Object();
+    //キューの差し替え中は追加しない（追加は並行して可能）
+    private static final ReadWriteLock RESIZE_LOCK = new ReentrantReadWriteLock();
+    
+    //統計
+    private static final StripedCounter ENQUEUED = new StripedCounter();
+    private static final StripedCounter REJECTED = new StripedCounter();
+    private static final StripedCounter WRITTEN = new StripedCounter();
+    private static final StripedCounter FAILED = new StripedCounter();
+    private static final LatencyHistogram FLUSH_LATENCY = new LatencyHistogram();
+    
+    private WriteBehindQueue() {}
+    
+    /**
+     * 設定変更（キュー容量を変更した場合、保持中のエンティティは新しいキューに移す）
+     * @param capacity キュー容量
+     * @param batchSize 1トランザクションで登録する件数
+     * @param offerTimeoutMillis キューが満杯の場合に空きを待つ時間（ミリ秒）
+     */
+    public static void configure(final int capacity, final int batchSize, final long offerTimeoutMillis) {
+        if (capacity < 1 || batchSize < 1 || offerTimeoutMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (DRAIN_LOCK) {
+            //追加中のスレッドがあれば完了（または待ち時間の経過）を待ってから差し替える
+            RESIZE_LOCK.writeLock().lock();
+            try {
+                final BlockingQueue<JPABase> current = queue;
+                if (current.size() + current.remainingCapacity() != capacity) {
+                    final BlockingQueue<JPABase> resized = new ArrayBlockingQueue<JPABase>(Math.max(capacity, current.size()));
+                    current.drainTo(resized);
+                    queue = resized;
+                }
+                WriteBehindQueue.batchSize = batchSize;
+                WriteBehindQueue.offerTimeoutMillis = offerTimeoutMillis;
+            }
+            finally {
+                RESIZE_LOCK.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * キューに追加（満杯の場合は空きが出るまで待つ）
+     * @throws IllegalStateException 待ち時間内に空きが出なかった場合
+     */
+    public static void enqueue(final JPABase entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException();
+        }
+        RESIZE_LOCK.readLock().lock();
+        try {
+            if (queue.offer(entity, offerTimeoutMillis, TimeUnit.MILLISECONDS) == false) {
+                REJECTED.increment();
+                throw new IllegalStateException("書き込みキューが満杯です：" + entity.getClass().getName());
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        finally {
+            RESIZE_LOCK.readLock().unlock();
+        }
+        ENQUEUED.increment();
+    }
+    
+    /**
+     * キュー内のエンティティをすべて登録（書き込み中のバッチがあれば完了を待つ）
+     * @return 登録件数
+     */
+    public static int flush() {
+        synchronized (DRAIN_LOCK) {
+            int written = 0;
+            final List<JPABase> batch = new ArrayList<JPABase>();
+            while (queue.drainTo(batch, batchSize) > 0) {
+                written += write(batch);
+                batch.clear();
+            }
+            return written;
+        }
+    }
+    
+    /** 1バッチを登録（失敗した場合は1件ずつ登録し直し、失敗したエンティティのみ破棄する） */
+    private static int write(final List<JPABase> batch) {
+        final long start = System.nanoTime();
+        //採番によりIDが設定されるエンティティ（失敗した試行で設定されたIDを再試行時に消去する）
+        final Set<JPABase> generated = Collections.newSetFromMap(new IdentityHashMap<JPABase, Boolean>());
+        try {
+            try {
+                persist(batch, generated);
+                WRITTEN.add(batch.size());
+                return batch.size();
+            }
+            catch (final RuntimeException e) {
+                if (batch.size() == 1) {
+                    discard(batch.get(0), e);
+                    return 0;
+                }
+                Logger.warn(e, "遅延書き込みに失敗したため、%d 件を1件ずつ登録し直します", batch.size());
+            }
+            int written = 0;
+            for (final JPABase entity : batch) {
+                try {
+                    persist(Collections.singletonList(entity), generated);
+                    WRITTEN.increment();
+                    written++;
+                }
+                catch (final RuntimeException e) {
+                    discard(entity, e);
+                }
+            }
+            return written;
+        }
+        finally {
+            FLUSH_LATENCY.record(System.nanoTime() - start);
+        }
+    }
+    
+    /** 独立したトランザクションで登録 */
+    private static void persist(final List<JPABase> entities, final Set<JPABase> generated) {
+        //呼び出し元（ジョブ等）のコンテキストを退避
+        final JPA outer = JPA.local.get();
+        JPA.local.remove();
+        try {
+            JPAPlugin.startTx(false);
+            boolean rollback = true;
+            try {
+                final EntityManager em = JPA.em();
+                final SessionImplementor session = (SessionImplementor) em.getDelegate();
+                for (final JPABase entity : entities) {
+                    final ClassMetadata metadata = session.getFactory().getClassMetadata(entity.getClass());
+                    if (generated.contains(entity)) {
+                        metadata.setIdentifier(entity, null, session);
+                    }
+                    else if (metadata.getIdentifier(entity, session) == null) {
+                        generated.add(entity);
+                    }
+                    em.persist(entity);
+                }
+                em.flush();
+                rollback = false;
+            }
+            finally {
+                JPAPlugin.closeTx(rollback);
+            }
+        }
+        finally {
+            JPA.local.set(outer);
+        }
+        for (final JPABase entity : entities) {
+            PlayPlugin.postEvent("JPASupport.objectPersisted", entity);
+        }
+    }
+    
+    /** 登録できなかったエンティティを破棄 */
+    private static void discard(final JPABase entity, final RuntimeException e) {
+        FAILED.increment();
+        Logger.error(e, "遅延書き込みに失敗したため破棄しました：%s", entity.getClass().getName());
+    }
+    
+    //-----------------------------------------
+    // 統計
+    //-----------------------------------------
+    
+    /** キュー内の件数 */
+    public static int depth() {
+        return queue.size();
+    }
+    
+    /** キュー容量 */
+    public static int capacity() {
+        final BlockingQueue<JPABase> current = queue;
+        return current.size() + current.remainingCapacity();
+    }
+    
+    /** キューに追加した件数 */
+    public static long enqueuedCount() {
+        return ENQUEUED.sum();
+    }
+    
+    /** キューが満杯のため追加できなかった件数 */
+    public static long rejectedCount() {
+        return REJECTED.sum();
+    }
+    
+    /** 登録した件数 */
+    public static long writtenCount() {
+        return WRITTEN.sum();
+    }
+    
+    /** 登録に失敗して破棄した件数 */
+    public static long failedCount() {
+        return FAILED.sum();
+    }
+    
+    /** バッチごとの登録時間 */
+    public static LatencyHistogram flushLatency() {
+        return FLUSH_LATENCY;
+    }
+    
+    /** 統計をクリア */
+    public static void resetStatistics() {
+        ENQUEUED.reset();
+        REJECTED.reset();
+        WRITTEN.reset();
+        FAILED.reset();
+        FLUSH_LATENCY.reset();
+    }
+    
+}
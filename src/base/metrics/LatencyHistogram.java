@@ -0,0 +1,91 @@
+package base.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * 処理時間ヒストグラム
+ * <p>
+ * 件数・合計時間はストライプ化カウンタ、分布は2のべき乗ごとのバケットで保持する。
+ * パーセンタイルはバケットの上限値で近似する（誤差は最大2倍）。
+ * </p>
+ */
+public class LatencyHistogram {
+    
+    //バケット数（バケットiは 2^i 以上 2^(i+1) 未満のナノ秒）
+    private static final int BUCKETS = 64;
+    
+    private final StripedCounter count = new StripedCounter();
+    private final StripedCounter totalNanos = new StripedCounter();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong maxNanos = new AtomicLong();
+    
+    /** 処理時間を記録 */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 1);
+        count.increment();
+        totalNanos.add(value);
+        buckets.getAndIncrement(63 - Long.numberOfLeadingZeros(value));
+        for (long max = maxNanos.get(); value > max; max = maxNanos.get()) {
+            if (maxNanos.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+    
+    /** 件数 */
+    public long count() {
+        return count.sum();
+    }
+    
+    /** 合計時間（ナノ秒） */
+    public long totalNanos() {
+        return totalNanos.sum();
+    }
+    
+    /** 平均時間（ナノ秒） */
+    public long meanNanos() {
+        final long count = count();
+        return count > 0 ? totalNanos() / count : 0;
+    }
+    
+    /** 最大時間（ナノ秒） */
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+    
+    /**
+     * パーセンタイル（ナノ秒、バケット上限値による近似）
+     * @param percentile 0～100
+     */
+    public long percentileNanos(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return i < 62 ? Math.min((1L << (i + 1)) - 1, maxNanos()) : maxNanos();
+            }
+        }
+        return maxNanos();
+    }
+    
+    /** リセット */
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        maxNanos.set(0);
+    }
+    
+}
@@ -0,0 +1,110 @@
+package base.metrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 処理時間計測
+ * <p>
+ * 保存（save）・保存仕様確認（isSatisfied）・値オブジェクト検証（validate）の処理時間を
+ * クラスごとに集計する。計測は実行時に切り替えでき、無効時は
+ * volatile変数の参照のみで終わる。
+ * </p>
+ * <pre>
+ * final long start = Metrics.start();
+ * ...
+ * Metrics.stop(Metrics.Kind.SAVE, getClass(), start);
+ * </pre>
+ */
+public final class Metrics {
+    
+    /** 計測対象の処理 */
+    public static enum Kind {
+        SAVE("save"),
+        SATISFY("isSatisfied"),
+        VALIDATE("validate");
+        
+        private final String label;
+        
+        private Kind(final String label) {
+            this.label = label;
+        }
+        
+        public String label() {
+            return label;
+        }
+    }
+    
+    //計測の有効・無効
+    private static volatile boolean enabled = false;
+    
+    //クラスごとの集計（キーはクラス名。クラスの再読み込み後も集計を引き継ぐ）
+    private static final ConcurrentMap<String, LatencyHistogram[]> HISTOGRAMS = new ConcurrentHashMap<String, LatencyHistogram[]>();
+    
+    private Metrics() {}
+    
+    /** 計測が有効かどうか */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    /** 計測の有効・無効を切り替える */
+    public static void setEnabled(final boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+    
+    /** 計測開始（無効時は0） */
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+    
+    /**
+     * 計測終了
+     * @param start start()の戻り値（0の場合は記録しない）
+     */
+    public static void stop(final Kind kind, final Class<?> clazz, final long start) {
+        if (start == 0L) {
+            return;
+        }
+        histogram(kind, clazz.getName()).record(System.nanoTime() - start);
+    }
+    
+    /** 集計結果（クラス名順） */
+    public static SortedMap<String, Map<Kind, LatencyHistogram>> snapshot() {
+        final SortedMap<String, Map<Kind, LatencyHistogram>> snapshot = new TreeMap<String, Map<Kind, LatencyHistogram>>();
+        for (final Map.Entry<String, LatencyHistogram[]> entry : HISTOGRAMS.entrySet()) {
+            final Map<Kind, LatencyHistogram> histograms = new EnumMap<Kind, LatencyHistogram>(Kind.class);
+            for (final Kind kind : Kind.values()) {
+                final LatencyHistogram histogram = entry.getValue()[kind.ordinal()];
+                if (histogram.count() > 0) {
+                    histograms.put(kind, histogram);
+                }
+            }
+            if (histograms.isEmpty() == false) {
+                snapshot.put(entry.getKey(), histograms);
+            }
+        }
+        return snapshot;
+    }
+    
+    /** 集計結果をクリア */
+    public static void reset() {
+        HISTOGRAMS.clear();
+    }
+    
+    private static LatencyHistogram histogram(final Kind kind, final String className) {
+        LatencyHistogram[] histograms = HISTOGRAMS.get(className);
+        if (histograms == null) {
+            final LatencyHistogram[] created = new LatencyHistogram[Kind.values().length];
+            for (int i = 0; i < created.length; i++) {
+                created[i] = new LatencyHistogram();
+            }
+            histograms = HISTOGRAMS.putIfAbsent(className, created);
+            if (histograms == null) {
+                histograms = created;
+            }
+        }
+        return histograms[kind.ordinal()];
+    }
+    
+}
@@ -0,0 +1,51 @@
+package base.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * ストライプ化カウンタ
+ * <p>
+ * スレッドごとに異なるスロットへ加算し、参照時に合計する。
+ * スロット間はキャッシュライン分（8要素）空けて配置し、スレッド間の競合を避ける。
+ * </p>
+ */
+public class StripedCounter {
+    
+    //スロット間隔（64バイト）
+    private static final int PADDING = 8;
+    //スロット数（CPU数の2倍以上の2のべき乗）
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+    
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+    
+    /** 加算 */
+    public void add(final long value) {
+        cells.getAndAdd(index(), value);
+    }
+    
+    /** 1加算 */
+    public void increment() {
+        add(1);
+    }
+    
+    /** 合計 */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+    
+    /** リセット（加算中の値は取りこぼす場合がある） */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+    
+    private static int index() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+    
+}
@@ -0,0 +1,52 @@
+package base.plugins;
+
+import java.util.*;
+
+import javassist.*;
+import javassist.bytecode.*;
+import javassist.bytecode.annotation.*;
+
+import org.hibernate.annotations.*;
+import org.hibernate.annotations.Cache;
+
+import play.classloading.ApplicationClasses.ApplicationClass;
+import play.classloading.enhancers.*;
+
+/**
+ * 二次キャッシュエンハンサ
+ * <p>
+ * @Cached を付与したGenericModelsのエンティティに、
+ * クラス名を領域名とする @Cache(usage = NONSTRICT_READ_WRITE) を付与する。
+ * 更新時はキャッシュを書き換えずに除去する方式のため、ロックを必要としない。
+ * </p>
+ */
+public class CacheEnhancer extends Enhancer {
+    
+    static final String CACHED = "base.ddd.Cached";
+    
+    @Override
+    public void enhanceThisClass(final ApplicationClass applicationClass) throws Exception {
+        final CtClass ctClass = makeClass(applicationClass);
+        final AnnotationsAttribute attribute = (AnnotationsAttribute) ctClass.getClassFile()
+                                                                              .getAttribute(AnnotationsAttribute.visibleTag);
+        if (attribute == null
+                || attribute.getAnnotation(CACHED) == null
+                || attribute.getAnnotation(javax.persistence.Entity.class.getName()) == null
+                || attribute.getAnnotation(Cache.class.getName()) != null
+                || ctClass.subclassOf(classPool.get(DddPlugin.GENERIC_MODELS)) == false) {
+            return;
+        }
+        
+        final ConstPool constPool = attribute.getConstPool();
+        final EnumMemberValue usage = new EnumMemberValue(constPool);
+        usage.setType(CacheConcurrencyStrategy.class.getName());
+        usage.setValue(CacheConcurrencyStrategy.NONSTRICT_READ_WRITE.name());
+        final Map<String, MemberValue> members = new HashMap<String, MemberValue>();
+        members.put("usage", usage);
+        members.put("region", new StringMemberValue(ctClass.getName(), constPool));
+        createAnnotation(attribute, Cache.class, members);
+        applicationClass.enhancedByteCode = ctClass.toBytecode();
+        ctClass.defrost();
+    }
+    
+}
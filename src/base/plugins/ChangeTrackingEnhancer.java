@@ -0,0 +1,44 @@
+package base.plugins;
+
+import java.util.*;
+
+import javassist.*;
+import javassist.bytecode.*;
+import javassist.bytecode.annotation.*;
+
+import play.classloading.ApplicationClasses.ApplicationClass;
+import play.classloading.enhancers.*;
+
+/**
+ * 変更追跡エンハンサ
+ * <p>
+ * @ChangeTracked を付与したGenericModelsのエンティティに、
+ * @org.hibernate.annotations.Entity(dynamicUpdate = true) を付与し、
+ * UPDATE文を変更されたカラムのみに限定する。
+ * </p>
+ */
+public class ChangeTrackingEnhancer extends Enhancer {
+    
+    static final String CHANGE_TRACKED = "base.ddd.ChangeTracked";
+    
+    @Override
+    public void enhanceThisClass(final ApplicationClass applicationClass) throws Exception {
+        final CtClass ctClass = makeClass(applicationClass);
+        final AnnotationsAttribute attribute = (AnnotationsAttribute) ctClass.getClassFile()
+                                                                              .getAttribute(AnnotationsAttribute.visibleTag);
+        if (attribute == null
+                || attribute.getAnnotation(CHANGE_TRACKED) == null
+                || attribute.getAnnotation(javax.persistence.Entity.class.getName()) == null
+                || attribute.getAnnotation(org.hibernate.annotations.Entity.class.getName()) != null
+                || ctClass.subclassOf(classPool.get(DddPlugin.GENERIC_MODELS)) == false) {
+            return;
+        }
+        
+        final Map<String, MemberValue> members = new HashMap<String, MemberValue>();
+        members.put("dynamicUpdate", new BooleanMemberValue(true, attribute.getConstPool()));
+        createAnnotation(attribute, org.hibernate.annotations.Entity.class, members);
+        applicationClass.enhancedByteCode = ctClass.toBytecode();
+        ctClass.defrost();
+    }
+    
+}
@@ -0,0 +1,44 @@
+package base.plugins;
+
+import play.*;
+import play.classloading.ApplicationClasses.ApplicationClass;
+
+/**
+ * DDD基底クラス用プラグイン
+ * <p>
+ * src/play.plugins で登録する。
+ * application.conf で以下を設定できる。
+ * </p>
+ * <ul>
+ * <li>playbase.cache.enabled：@Cached のエンティティを二次キャッシュする（既定値 false）。
+ *     false の場合、他のキャッシュ実装を設定していなければ二次キャッシュ自体を無効とする</li>
+ * </ul>
+ */
+public class DddPlugin extends PlayPlugin {
+    
+    //エンハンサの対象とするエンティティの基底クラス
+    static final String GENERIC_MODELS = "base.ddd.GenericModels";
+    
+    @Override
+    public void onConfigurationRead() {
+        //@Cached 用の二次キャッシュ（設定時のみ）
+        if (Boolean.parseBoolean(Play.configuration.getProperty("playbase.cache.enabled", "false"))) {
+            Play.configuration.setProperty("hibernate.cache.region.factory_class", "base.ddd.EntityCacheRegionFactory");
+            Play.configuration.setProperty("hibernate.cache.use_second_level_cache", "true");
+        }
+        else if (Play.configuration.getProperty("hibernate.cache.region.factory_class") == null
+                && Play.configuration.getProperty("hibernate.cache.provider_class") == null) {
+            //キャッシュ実装がないまま @Cache のエンティティを登録すると起動に失敗するため、二次キャッシュを無効とする
+            Play.configuration.setProperty("hibernate.cache.use_second_level_cache", "false");
+        }
+    }
+    
+    @Override
+    public void enhance(final ApplicationClass applicationClass) throws Exception {
+        new ValueObjectEnhancer().enhanceThisClass(applicationClass);
+        new IdGeneratorEnhancer().enhanceThisClass(applicationClass);
+        new CacheEnhancer().enhanceThisClass(applicationClass);
+        new ChangeTrackingEnhancer().enhanceThisClass(applicationClass);
+    }
+    
+}
@@ -0,0 +1,84 @@
+package base.plugins;
+
+import java.util.*;
+
+import javassist.*;
+import javassist.bytecode.*;
+import javassist.bytecode.annotation.*;
+import javassist.bytecode.annotation.Annotation;
+
+import org.hibernate.annotations.*;
+
+import play.classloading.ApplicationClasses.ApplicationClass;
+import play.classloading.enhancers.*;
+
+/**
+ * サロゲートキー採番エンハンサ
+ * <p>
+ * GenericModels.idは採番名（base.ddd.id）を指定しているため、
+ * 同名の @GenericGenerator を宣言していないエンティティに既定の採番（native）を付与する。
+ * エンティティ側で宣言した場合はそちらが使われる（例：base.ddd.PooledIdGenerator）。
+ * </p>
+ */
+public class IdGeneratorEnhancer extends Enhancer {
+    
+    //GenericModels.ID_GENERATOR
+    static final String ID_GENERATOR = "base.ddd.id";
+    static final String DEFAULT_STRATEGY = "native";
+    
+    @Override
+    public void enhanceThisClass(final ApplicationClass applicationClass) throws Exception {
+        final CtClass ctClass = makeClass(applicationClass);
+        if (isTarget(ctClass) == false) {
+            return;
+        }
+        
+        final AnnotationsAttribute attribute = getAnnotations(ctClass);
+        if (declaresGenerator(attribute) == false) {
+            final ConstPool constPool = attribute.getConstPool();
+            final Map<String, MemberValue> members = new HashMap<String, MemberValue>();
+            members.put("name", new StringMemberValue(ID_GENERATOR, constPool));
+            members.put("strategy", new StringMemberValue(DEFAULT_STRATEGY, constPool));
+            createAnnotation(attribute, GenericGenerator.class, members);
+            applicationClass.enhancedByteCode = ctClass.toBytecode();
+        }
+        ctClass.defrost();
+    }
+    
+    /** GenericModelsを継承したエンティティかどうか */
+    private boolean isTarget(final CtClass ctClass) throws NotFoundException {
+        if (ctClass.isInterface() || ctClass.getName().equals(DddPlugin.GENERIC_MODELS)) {
+            return false;
+        }
+        final AnnotationsAttribute attribute = (AnnotationsAttribute) ctClass.getClassFile()
+                                                                              .getAttribute(AnnotationsAttribute.visibleTag);
+        if (attribute == null || attribute.getAnnotation(javax.persistence.Entity.class.getName()) == null) {
+            return false;
+        }
+        return ctClass.subclassOf(classPool.get(DddPlugin.GENERIC_MODELS));
+    }
+    
+    /** 採番名の @GenericGenerator を宣言済みかどうか */
+    private static boolean declaresGenerator(final AnnotationsAttribute attribute) {
+        if (isIdGenerator(attribute.getAnnotation(GenericGenerator.class.getName()))) {
+            return true;
+        }
+        final Annotation generators = attribute.getAnnotation(GenericGenerators.class.getName());
+        if (generators != null) {
+            for (final MemberValue value : ((ArrayMemberValue) generators.getMemberValue("value")).getValue()) {
+                if (isIdGenerator(((AnnotationMemberValue) value).getValue())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isIdGenerator(final Annotation annotation) {
+        if (annotation == null) {
+            return false;
+        }
+        final StringMemberValue name = (StringMemberValue) annotation.getMemberValue("name");
+        return name != null && ID_GENERATOR.equals(name.getValue());
+    }
+}
@@ -0,0 +1,88 @@
+package base.plugins;
+
+import java.io.*;
+import java.util.*;
+
+import com.google.gson.*;
+
+import play.*;
+
+import base.metrics.*;
+import base.metrics.Metrics.Kind;
+
+/**
+ * 処理時間計測プラグイン
+ * <p>
+ * Metricsの集計結果を @status に出力する。
+ * 計測は application.conf の playbase.metrics.enabled（既定値 false）で有効にし、
+ * 実行中は Metrics.setEnabled で切り替える。
+ * </p>
+ */
+public class MetricsPlugin extends PlayPlugin {
+    
+    @Override
+    public void onConfigurationRead() {
+        Metrics.setEnabled(Boolean.parseBoolean(Play.configuration.getProperty("playbase.metrics.enabled", "false")));
+    }
+    
+    @Override
+    public String getStatus() {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter out = new PrintWriter(sw);
+        out.println("PlayBase metrics:");
+        out.println("~~~~~~~~~~~~~~~~~");
+        out.println("Enabled: " + Metrics.isEnabled());
+        for (final Map.Entry<String, Map<Kind, LatencyHistogram>> entry : Metrics.snapshot().entrySet()) {
+            out.println();
+            out.println(entry.getKey());
+            for (final Map.Entry<Kind, LatencyHistogram> histogram : entry.getValue().entrySet()) {
+                final LatencyHistogram h = histogram.getValue();
+                out.println(String.format("  %-12s count=%d, total=%s, mean=%s, p50=%s, p99=%s, max=%s",
+                                          histogram.getKey().label(),
+                                          h.count(),
+                                          format(h.totalNanos()),
+                                          format(h.meanNanos()),
+                                          format(h.percentileNanos(50)),
+                                          format(h.percentileNanos(99)),
+                                          format(h.maxNanos())));
+            }
+        }
+        return sw.toString();
+    }
+    
+    @Override
+    public JsonObject getJsonStatus() {
+        final JsonObject status = new JsonObject();
+        status.addProperty("enabled", Metrics.isEnabled());
+        final JsonObject classes = new JsonObject();
+        for (final Map.Entry<String, Map<Kind, LatencyHistogram>> entry : Metrics.snapshot().entrySet()) {
+            final JsonObject kinds = new JsonObject();
+            for (final Map.Entry<Kind, LatencyHistogram> histogram : entry.getValue().entrySet()) {
+                final LatencyHistogram h = histogram.getValue();
+                final JsonObject values = new JsonObject();
+                values.addProperty("count", h.count());
+                values.addProperty("totalNanos", h.totalNanos());
+                values.addProperty("meanNanos", h.meanNanos());
+                values.addProperty("p50Nanos", h.percentileNanos(50));
+                values.addProperty("p99Nanos", h.percentileNanos(99));
+                values.addProperty("maxNanos", h.maxNanos());
+                kinds.add(histogram.getKey().label(), values);
+            }
+            classes.add(entry.getKey(), kinds);
+        }
+        status.add("classes", classes);
+        return status;
+    }
+    
+    //ナノ秒を読みやすい単位で表示
+    static String format(final long nanos) {
+        if (nanos < 1000L) {
+            return nanos + "ns";
+        }
+        if (nanos < 1000000L) {
+            return String.format("%.1fus", nanos / 1000d);
+        }
+        return String.format("%.1fms", nanos / 1000000d);
+    }
+    
+}
@@ -0,0 +1,360 @@
+package base.plugins;
+
+import java.util.*;
+
+import javassist.*;
+import javassist.bytecode.*;
+import javassist.bytecode.annotation.*;
+import javassist.bytecode.annotation.Annotation;
+import javassist.expr.*;
+
+import org.apache.commons.lang3.*;
+
+import play.classloading.ApplicationClasses.ApplicationClass;
+import play.classloading.enhancers.*;
+import play.exceptions.*;
+
+/**
+ * 値オブジェクトエンハンサ
+ * <p>
+ * ValueObjectの具象クラスに、フィールドへ直接アクセスする
+ * fieldsEquals/fieldsHashCode/fieldsToString/fieldsValidateを生成する。
+ * 結果はEqualsBuilder/HashCodeBuilder/ReflectionToStringBuilder・ValueObjectValidationによる
+ * リフレクション実装と同一となる。
+ * validate()を呼び出すクラスに対応外の型のフィールドがある場合は、コンパイルエラーとする。
+ * 生成したメソッドには合成（synthetic）フラグを付与し、独自の実装と区別する。
+ * </p>
+ */
+public class ValueObjectEnhancer extends Enhancer {
+    
+    static final String VALUE_OBJECT = "base.ddd.ValueObject";
+    //バリデーション違反種別（base.ddd.ValidationResult.Kind）
+    static final String KIND = "base.ddd.ValidationResult$Kind";
+    //バリデーション対応型（ValueObjectValidation.FieldMeta#isSupportedと同一）
+    static final Set<String> SUPPORTED = new HashSet<String>(Arrays.asList("Ljava/lang/String;",
+                                                                           "Ljava/lang/Integer;",
+                                                                           "Ljava/lang/Long;",
+                                                                           "Ljava/math/BigDecimal;",
+                                                                           "Lorg/joda/time/DateTime;",
+                                                                           "Ljava/lang/Boolean;"));
+    
+    @Override
+    public void enhanceThisClass(final ApplicationClass applicationClass) throws Exception {
+        final CtClass ctClass = makeClass(applicationClass);
+        if (isTarget(ctClass) == false || isEnhanced(ctClass)) {
+            return;
+        }
+        
+        boolean enhanced = false;
+        //比較・ハッシュ・文字列化の対象フィールド（サブクラス側から順に、リフレクション実装と同順）
+        //直接アクセスできないフィールドがあればリフレクション実装のまま
+        final List<CtField> fields = fields(ctClass);
+        if (fields != null) {
+            if (isOverridable(ctClass, "fieldsEquals")) {
+                addGenerated(ctClass, equalsSource(ctClass, fields));
+                enhanced = true;
+            }
+            if (isOverridable(ctClass, "fieldsHashCode")) {
+                addGenerated(ctClass, hashCodeSource(fields));
+                enhanced = true;
+            }
+            if (isOverridable(ctClass, "fieldsToString")) {
+                addGenerated(ctClass, toStringSource(ctClass, fields));
+                enhanced = true;
+            }
+        }
+        //バリデーション（対応外の型のフィールドがあればリフレクション実装のまま）
+        if (isOverridable(ctClass, "fieldsValidate")) {
+            final String source = validateSource(applicationClass, ctClass);
+            if (source != null) {
+                addGenerated(ctClass, source);
+                enhanced = true;
+            }
+        }
+        if (enhanced) {
+            applicationClass.enhancedByteCode = ctClass.toBytecode();
+        }
+        ctClass.defrost();
+    }
+    
+    /** ValueObjectの具象クラスかどうか */
+    private boolean isTarget(final CtClass ctClass) throws NotFoundException {
+        if (ctClass.isInterface()
+                || Modifier.isAbstract(ctClass.getModifiers())
+                || ctClass.getName().equals(VALUE_OBJECT)) {
+            return false;
+        }
+        return ctClass.subclassOf(classPool.get(VALUE_OBJECT));
+    }
+    
+    /** 生成済みのメソッドがあるかどうか */
+    private boolean isEnhanced(final CtClass ctClass) {
+        for (final CtMethod m : ctClass.getDeclaredMethods()) {
+            if (m.getName().startsWith("fields") && isGenerated(m)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * ValueObjectまでの間で、対象メソッドが独自に実装されていないかどうか
+     * <p>
+     * スーパークラスに生成したメソッドはスーパークラスのフィールドのみを対象とするため、独自の実装と見なさない。
+     * </p>
+     */
+    private boolean isOverridable(final CtClass ctClass, final String methodName) throws NotFoundException {
+        for (CtClass c = ctClass; c.getName().equals(VALUE_OBJECT) == false; c = c.getSuperclass()) {
+            for (final CtMethod m : c.getDeclaredMethods()) {
+                if (m.getName().equals(methodName) && isGenerated(m) == false) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    /** エンハンサが生成したメソッドかどうか */
+    private boolean isGenerated(final CtMethod m) {
+        return (m.getMethodInfo2().getAccessFlags() & AccessFlag.SYNTHETIC) != 0;
+    }
+    
+    /** メソッドを生成して追加（合成フラグを付与する） */
+    private void addGenerated(final CtClass ctClass, final String source) throws CannotCompileException {
+        final CtMethod method = CtMethod.make(source, ctClass);
+        method.getMethodInfo().setAccessFlags(method.getMethodInfo().getAccessFlags() | AccessFlag.SYNTHETIC);
+        ctClass.addMethod(method);
+    }
+    
+    /** 比較対象フィールド一覧（直接アクセスできないフィールドがあればnull） */
+    private List<CtField> fields(final CtClass ctClass) throws NotFoundException {
+        final List<CtField> fields = new ArrayList<CtField>();
+        for (CtClass c = ctClass; c.getName().equals(VALUE_OBJECT) == false; c = c.getSuperclass()) {
+            for (final CtField f : c.getDeclaredFields()) {
+                final int mod = f.getModifiers();
+                //static・transient・合成フィールドはリフレクション実装でも対象外
+                if (Modifier.isStatic(mod)
+                        || Modifier.isTransient(mod)
+                        || f.getName().indexOf('$') != -1) {
+                    continue;
+                }
+                if (isAccessible(ctClass, c, mod) == false || isPlain(descriptor(f)) == false) {
+                    return null;
+                }
+                fields.add(f);
+            }
+        }
+        return fields;
+    }
+    
+    /** 生成先クラスから直接アクセスできるかどうか */
+    private boolean isAccessible(final CtClass target, final CtClass declaring, final int mod) {
+        if (target == declaring || Modifier.isPublic(mod) || Modifier.isProtected(mod)) {
+            return true;
+        }
+        return Modifier.isPrivate(mod) == false
+                && target.getPackageName().equals(declaring.getPackageName());
+    }
+    
+    /** 配列を保持し得ない型かどうか（配列はリフレクション実装で要素比較する） */
+    private boolean isPlain(final String descriptor) {
+        return descriptor.startsWith("[") == false
+                && descriptor.equals("Ljava/lang/Object;") == false
+                && descriptor.equals("Ljava/io/Serializable;") == false
+                && descriptor.equals("Ljava/lang/Cloneable;") == false;
+    }
+    
+    //-----------------------------------------
+    // ソース生成
+    //-----------------------------------------
+    
+    /** fieldsEquals（EqualsBuilder.reflectionEqualsと同等） */
+    private String equalsSource(final CtClass ctClass, final List<CtField> fields) {
+        final StringBuilder src = new StringBuilder();
+        src.append("protected boolean fieldsEquals(Object o) {");
+        src.append(ctClass.getName()).append(" other = (").append(ctClass.getName()).append(") o;");
+        for (final CtField f : fields) {
+            final String lhs = "this." + f.getName();
+            final String rhs = "other." + f.getName();
+            final char type = descriptor(f).charAt(0);
+            if (type == 'D') {
+                src.append("if (Double.doubleToLongBits(").append(lhs).append(") != Double.doubleToLongBits(").append(rhs).append(")) return false;");
+            }
+            else if (type == 'F') {
+                src.append("if (Float.floatToIntBits(").append(lhs).append(") != Float.floatToIntBits(").append(rhs).append(")) return false;");
+            }
+            else if (isPrimitive(type)) {
+                src.append("if (").append(lhs).append(" != ").append(rhs).append(") return false;");
+            }
+            else {
+                src.append("if (").append(lhs).append(" != ").append(rhs).append(" && (")
+                   .append(lhs).append(" == null || !").append(lhs).append(".equals(").append(rhs).append("))) return false;");
+            }
+        }
+        src.append("return true;}");
+        return src.toString();
+    }
+    
+    /** fieldsHashCode（HashCodeBuilder.reflectionHashCodeと同等、プリミティブはラッパー型のhashCode） */
+    private String hashCodeSource(final List<CtField> fields) {
+        final StringBuilder src = new StringBuilder();
+        src.append("protected int fieldsHashCode() {");
+        src.append("int total = 17;");
+        for (final CtField f : fields) {
+            final String v = "this." + f.getName();
+            final char type = descriptor(f).charAt(0);
+            src.append("total = total * 37 + ");
+            if (type == 'Z') {
+                src.append("(").append(v).append(" ? 1231 : 1237)");
+            }
+            else if (type == 'J') {
+                src.append("(int) (").append(v).append(" ^ (").append(v).append(" >>> 32))");
+            }
+            else if (type == 'D') {
+                src.append("(int) (Double.doubleToLongBits(").append(v).append(") ^ (Double.doubleToLongBits(").append(v).append(") >>> 32))");
+            }
+            else if (type == 'F') {
+                src.append("Float.floatToIntBits(").append(v).append(")");
+            }
+            else if (isPrimitive(type)) {
+                src.append("(int) ").append(v);
+            }
+            else {
+                src.append("(").append(v).append(" == null ? 0 : ").append(v).append(".hashCode())");
+            }
+            src.append(";");
+        }
+        src.append("return total;}");
+        return src.toString();
+    }
+    
+    /** fieldsToString（ToStringStyle.SHORT_PREFIX_STYLEと同一書式） */
+    private String toStringSource(final CtClass ctClass, final List<CtField> fields) {
+        final StringBuilder src = new StringBuilder();
+        src.append("protected String fieldsToString() {");
+        src.append("StringBuilder sb = new StringBuilder(\"")
+           .append(ClassUtils.getShortClassName(ctClass.getName()))
+           .append("[\");");
+        for (int i = 0; i < fields.size(); i++) {
+            final CtField f = fields.get(i);
+            final String v = "this." + f.getName();
+            src.append("sb.append(\"").append(i > 0 ? "," : "").append(f.getName()).append("=\");");
+            //append()は引数型と完全一致させる（オーバーロード解決での継承階層の走査を避ける）
+            final char type = descriptor(f).charAt(0);
+            if (type == 'B' || type == 'S') {
+                src.append("sb.append((int) ").append(v).append(");");
+            }
+            else if (isPrimitive(type)) {
+                src.append("sb.append(").append(v).append(");");
+            }
+            else {
+                src.append("if (").append(v).append(" == null) sb.append(\"<null>\"); else sb.append((Object) ").append(v).append(");");
+            }
+        }
+        src.append("sb.append(']');");
+        src.append("return sb.toString();}");
+        return src.toString();
+    }
+    
+    /**
+     * fieldsValidate（ValueObjectValidationと同等、宣言順に評価する）
+     * @return 対応外の型のフィールドがあればnull
+     * @throws CompilationException validate()を呼び出すクラスに対応外の型のフィールドがある場合
+     */
+    private String validateSource(final ApplicationClass applicationClass, final CtClass ctClass) throws CannotCompileException {
+        final StringBuilder src = new StringBuilder();
+        src.append("protected void fieldsValidate() {");
+        for (final CtField f : ctClass.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers())) {
+                continue;
+            }
+            final String descriptor = descriptor(f);
+            if (SUPPORTED.contains(descriptor) == false) {
+                //実行時に必ず失敗するため、validate()の呼び出し箇所をエラーとする
+                final int line = validateCallLine(ctClass);
+                if (line > 0) {
+                    throw new CompilationException(applicationClass.javaFile,
+                                                   "指定の型には対応していません：" + f.getName() + "（" + Descriptor.toClassName(descriptor) + "）",
+                                                   line,
+                                                   -1,
+                                                   -1);
+                }
+                return null;
+            }
+            
+            final Annotation column = column(f);
+            if (column == null) {
+                continue;
+            }
+            final String v = "this." + f.getName();
+            final boolean isString = descriptor.equals("Ljava/lang/String;");
+            final MemberValue nullable = column.getMemberValue("nullable");
+            if (nullable != null && ((BooleanMemberValue) nullable).getValue() == false) {
+                //String型の場合、空文字は不可
+                src.append("if (").append(v).append(" == null");
+                if (isString) {
+                    src.append(" || ").append(v).append(".length() == 0");
+                }
+                src.append(") throw new IllegalArgumentException(").append(KIND).append(".REQUIRED.message());");
+            }
+            if (isString) {
+                final MemberValue length = column.getMemberValue("length");
+                final int max = length != null ? ((IntegerMemberValue) length).getValue() : 255;
+                src.append("if (").append(v).append(" != null && ").append(v).append(".length() > ").append(max)
+                   .append(") throw new IllegalArgumentException(").append(KIND).append(".TOO_LONG.message());");
+            }
+        }
+        src.append("}");
+        return src.toString();
+    }
+    
+    /** @Columnアノテーション（なければnull） */
+    private Annotation column(final CtField f) {
+        final AnnotationsAttribute attribute = (AnnotationsAttribute) f.getFieldInfo2()
+                                                                       .getAttribute(AnnotationsAttribute.visibleTag);
+        return attribute != null ? attribute.getAnnotation("javax.persistence.Column") : null;
+    }
+    
+    /** クラス内でvalidate()を呼び出している行番号（呼び出しがなければ0） */
+    private int validateCallLine(final CtClass ctClass) throws CannotCompileException {
+        final int[] line = {0};
+        for (final CtBehavior behavior : ctClass.getDeclaredBehaviors()) {
+            behavior.instrument(new ExprEditor() {
+                
+                @Override
+                public void edit(final MethodCall m) {
+                    if (line[0] == 0
+                            && m.getMethodName().equals("validate")
+                            && m.getSignature().equals("()V")
+                            && isValueObjectClass(ctClass, m.getClassName())) {
+                        line[0] = m.getLineNumber();
+                    }
+                }
+            });
+        }
+        return line[0];
+    }
+    
+    /** 呼び出し先が対象クラス、または他のValueObjectのクラスかどうか */
+    private boolean isValueObjectClass(final CtClass ctClass, final String className) {
+        if (className.equals(ctClass.getName()) || className.equals(VALUE_OBJECT)) {
+            return true;
+        }
+        try {
+            return classPool.get(className).subclassOf(classPool.get(VALUE_OBJECT));
+        }
+        catch (final NotFoundException e) {
+            return false;
+        }
+    }
+    
+    /** フィールド型の記述子（型解決のためのクラス読み込みを避ける） */
+    private String descriptor(final CtField f) {
+        return f.getFieldInfo2().getDescriptor();
+    }
+    
+    /** 記述子の先頭文字がプリミティブ型を表すかどうか */
+    private boolean isPrimitive(final char type) {
+        return type != 'L' && type != '[';
+    }
+}
@@ -0,0 +1,97 @@
+package base.plugins;
+
+import java.io.*;
+
+import com.google.gson.*;
+
+import play.*;
+import play.libs.*;
+
+import base.jobs.*;
+import base.metrics.*;
+
+/**
+ * 遅延書き込みプラグイン
+ * <p>
+ * application.conf の以下の設定で WriteBehindQueue を構成し、WriteBehindJob を定期実行する。
+ * </p>
+ * <ul>
+ * <li>playbase.writebehind.capacity：キュー容量（既定値 10000）</li>
+ * <li>playbase.writebehind.batchSize：1トランザクションで登録する件数（既定値 hibernate.jdbc.batch_size、未設定時は50）</li>
+ * <li>playbase.writebehind.offerTimeout：キューが満杯の場合に空きを待つ時間（ミリ秒、既定値 1000）</li>
+ * <li>playbase.writebehind.interval：ジョブの実行間隔（既定値 1s）</li>
+ * </ul>
+ * <p>
+ * 停止時はJPAPluginより先に停止し（停止は優先度の逆順）、キュー内のエンティティをすべて登録する。
+ * キューの状態・登録時間は @status に出力する。
+ * </p>
+ */
+public class WriteBehindPlugin extends PlayPlugin {
+    
+    @Override
+    public void onConfigurationRead() {
+        final String batchSize = Play.configuration.getProperty("playbase.writebehind.batchSize",
+                                                                Play.configuration.getProperty("hibernate.jdbc.batch_size",
+                                                                                               String.valueOf(WriteBehindQueue.DEFAULT_BATCH_SIZE)));
+        WriteBehindQueue.configure(Integer.parseInt(Play.configuration.getProperty("playbase.writebehind.capacity",
+                                                                                   String.valueOf(WriteBehindQueue.DEFAULT_CAPACITY)).trim()),
+                                   Integer.parseInt(batchSize.trim()),
+                                   Long.parseLong(Play.configuration.getProperty("playbase.writebehind.offerTimeout",
+                                                                                 String.valueOf(WriteBehindQueue.DEFAULT_OFFER_TIMEOUT_MILLIS)).trim()));
+    }
+    
+    @Override
+    public void afterApplicationStart() {
+        new WriteBehindJob().every(Time.parseDuration(Play.configuration.getProperty("playbase.writebehind.interval", "1s")));
+    }
+    
+    @Override
+    public void onApplicationStop() {
+        final int written = WriteBehindQueue.flush();
+        if (written > 0) {
+            Logger.info("遅延書き込みキューの %d 件を登録しました", written);
+        }
+    }
+    
+    @Override
+    public String getStatus() {
+        final StringWriter sw = new StringWriter();
+        final PrintWriter out = new PrintWriter(sw);
+        final LatencyHistogram h = WriteBehindQueue.flushLatency();
+        out.println("PlayBase write-behind queue:");
+        out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
+        out.println("Depth: " + WriteBehindQueue.depth() + " / " + WriteBehindQueue.capacity());
+        out.println("Enqueued: " + WriteBehindQueue.enqueuedCount());
+        out.println("Rejected: " + WriteBehindQueue.rejectedCount());
+        out.println("Written: " + WriteBehindQueue.writtenCount());
+        out.println("Failed: " + WriteBehindQueue.failedCount());
+        out.println(String.format("Flush: count=%d, mean=%s, p50=%s, p99=%s, max=%s",
+                                  h.count(),
+                                  MetricsPlugin.format(h.meanNanos()),
+                                  MetricsPlugin.format(h.percentileNanos(50)),
+                                  MetricsPlugin.format(h.percentileNanos(99)),
+                                  MetricsPlugin.format(h.maxNanos())));
+        return sw.toString();
+    }
+    
+    @Override
+    public JsonObject getJsonStatus() {
+        final LatencyHistogram h = WriteBehindQueue.flushLatency();
+        final JsonObject status = new JsonObject();
+        status.addProperty("depth", WriteBehindQueue.depth());
+        status.addProperty("capacity", WriteBehindQueue.capacity());
+        status.addProperty("enqueued", WriteBehindQueue.enqueuedCount());
+        status.addProperty("rejected", WriteBehindQueue.rejectedCount());
+        status.addProperty("written", WriteBehindQueue.writtenCount());
+        status.addProperty("failed", WriteBehindQueue.failedCount());
+        final JsonObject flush = new JsonObject();
+        flush.addProperty("count", h.count());
+        flush.addProperty("meanNanos", h.meanNanos());
+        flush.addProperty("p50Nanos", h.percentileNanos(50));
+        flush.addProperty("p99Nanos", h.percentileNanos(99));
+        flush.addProperty("maxNanos", h.maxNanos());
+        status.add("flush", flush);
+        return status;
+    }
+    
+}
@@ -0,0 +1,22 @@
+package base.ddd;
+
+import javax.persistence.*;
+
+/** 二次キャッシュテスト用エンティティ */
+@javax.persistence.Entity
+@Cached(maxSize = 2)
+public class CachedEntity extends Entity<CachedEntity> {
+    
+    @Column(nullable = false)
+    public String name;
+    
+    protected CachedEntity() {}
+    
+    public CachedEntity(final String name) {
+        this.name = name;
+    }
+    
+    @Override
+    public void isSatisfied() {}
+    
+}
@@ -0,0 +1,64 @@
+package base.ddd;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.matchers.JUnitMatchers.*;
+
+import org.hibernate.*;
+import org.junit.*;
+
+import play.db.jpa.*;
+import play.test.*;
+
+public class EntityTest extends UnitTest {
+    
+    private TreeEntity root;
+    private TreeEntity child;
+    
+    @Before
+    public void before() {
+        Fixtures.deleteAllModels();
+        root = new TreeEntity("root", null).save();
+        child = new TreeEntity("child", root).save();
+        for (int i = 0; i < 3; i++) {
+            new TreeEntity("leaf" + i, child).save();
+        }
+        JPA.em().flush();
+        JPA.em().clear();
+    }
+    
+    @Test
+    //未初期化の関連エンティティ・コレクションをロードしないこと
+    public void testToStringAllUninitialized() throws Exception {
+        final TreeEntity loaded = JPA.em().find(TreeEntity.class, child.id());
+        final String str = loaded.toStringAll();
+        
+        assertThat(str, containsString("name=child"));
+        assertThat(str, containsString("parent=TreeEntity#" + root.id()));
+        assertThat(str, containsString("children=<uninitialized>"));
+        assertThat(Hibernate.isInitialized(loaded.parent), is(false));
+        assertThat(Hibernate.isInitialized(loaded.children), is(false));
+    }
+    
+    @Test
+    //階層数・要素数が制限され、循環参照はIDのみとなること
+    public void testToStringAllLimits() throws Exception {
+        final TreeEntity loaded = JPA.em().find(TreeEntity.class, child.id());
+        loaded.children.size();
+        
+        final StringBuilder sb = new StringBuilder();
+        loaded.toStringAll(sb, 1, 2);
+        final String str = sb.toString();
+        
+        //子は展開され、子から親（自身）への参照はIDのみ
+        assertThat(str, containsString("name=leaf"));
+        assertThat(str, containsString("parent=TreeEntity#" + child.id()));
+        //2件を超えた分は件数のみ
+        assertThat(str, containsString("...(+1)"));
+        
+        //階層数0では関連エンティティを展開しないこと
+        final StringBuilder shallow = new StringBuilder();
+        loaded.toStringAll(shallow, 0, 10);
+        assertThat(shallow.toString(), not(containsString("name=leaf")));
+    }
+    
+}
@@ -0,0 +1,583 @@
+package base.ddd;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+import org.hibernate.engine.EntityEntry;
+import org.hibernate.engine.PersistenceContext;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.persister.entity.*;
+import org.junit.*;
+
+import play.db.jpa.*;
+import play.test.*;
+import base.jobs.*;
+
+public class GenericModelsTest extends UnitTest {
+    
+    private SampleEntity a1;
+    private SampleEntity a2;
+    private SampleEntity b1;
+    
+    @Before
+    public void before() {
+        Fixtures.deleteAllModels();
+        a1 = new SampleEntity("a1").save();
+        a2 = new SampleEntity("a2").save();
+        b1 = new SampleEntity("b1").save();
+    }
+    
+    //-------------------------------------
+    // 一括操作テスト
+    //-------------------------------------
+    
+    @Test
+    //ID指定で一括無効化・有効化できること
+    public void testDisableAll() throws Exception {
+        final Long version = version(a1);
+        final int count = GenericModels.disableAll(SampleEntity.class,
+                                                   Arrays.asList(a1.id(), b1.id()));
+        assertThat(count, is(2));
+        //読み込み済みのエンティティは管理下のまま、更新後の状態に再読み込みされること
+        assertThat(JPA.em().contains(a1), is(true));
+        assertThat(a1.isDisable(), is(true));
+        assertThat(a2.isDisable(), is(false));
+        
+        assertThat(find(a1).isDisable(), is(true));
+        assertThat(find(a2).isDisable(), is(false));
+        assertThat(find(b1).isDisable(), is(true));
+        //楽観ロックバージョンが進み、更新日時が設定されること
+        assertThat(version(a1), is(version + 1));
+        assertThat(find(a1).modifyDate(), is(not(nullValue())));
+        //再読み込み後は楽観ロック例外とならずに保存できること
+        a1.name = "a1-updated";
+        a1.save();
+        JPA.em().clear();
+        assertThat(find(a1).name, is("a1-updated"));
+        
+        //既に無効な行は更新対象外となること
+        assertThat(GenericModels.disableAll(SampleEntity.class, Arrays.asList(a1.id())),
+                   is(0));
+        assertThat(GenericModels.enableAll(SampleEntity.class, Arrays.asList(a1.id())),
+                   is(1));
+        assertThat(find(a1).isDisable(), is(false));
+    }
+    
+    @Test
+    //JPQL条件指定で一括無効化できること
+    public void testDisableWhere() throws Exception {
+        //フラッシュ前の登録も更新対象となること
+        final SampleEntity a3 = new SampleEntity("a3");
+        JPA.em().persist(a3);
+        final int count = GenericModels.disableWhere(SampleEntity.class, "name like ?1", "a%");
+        assertThat(count, is(3));
+        assertThat(a3.isDisable(), is(true));
+        assertThat(find(a1).isDisable(), is(true));
+        assertThat(find(a2).isDisable(), is(true));
+        assertThat(find(b1).isDisable(), is(false));
+        
+        assertThat(GenericModels.enableWhere(SampleEntity.class, "name = ?1", "a2"), is(1));
+        assertThat(find(a2).isDisable(), is(false));
+    }
+    
+    @Test
+    //仕様を満たすエンティティのみ一括保存できること
+    public void testSaveAll() throws Exception {
+        final List<SampleEntity> entities = new ArrayList<SampleEntity>();
+        for (int i = 0; i < 5; i++) {
+            entities.add(new SampleEntity("c" + i));
+        }
+        final SampleEntity invalid = new SampleEntity("x");
+        invalid.name = "";
+        entities.add(invalid);
+        //管理下のエンティティの更新
+        a1.name = "a1-updated";
+        entities.add(a1);
+        
+        final BatchSaveResult result = GenericModels.saveAll(entities, 2);
+        assertThat(result.saved(), is(6));
+        assertThat(result.rejected().size(), is(1));
+        assertThat(result.rejected().get(0).entity(), is((Object) invalid));
+        assertThat(result.rejected().get(0).cause(),
+                   is(instanceOf(IllegalArgumentException.class)));
+        
+        //永続化コンテキストはクリアされていること
+        assertThat(JPA.em().contains(entities.get(0)), is(false));
+        assertThat(SampleEntity.count(), is(8L));
+        assertThat(find(a1).name, is("a1-updated"));
+        assertThat(find(entities.get(4)).name, is("c4"));
+    }
+    
+    @Test
+    //読み取り専用で読み込まれたエンティティは保存せずに記録すること
+    public void testSaveAllReadOnly() throws Exception {
+        commit();
+        JPA.em().clear();
+        final SampleEntity readOnly = GenericModels.findReadOnly(SampleEntity.class, "name = ?1", "a1").get(0);
+        readOnly.name = "a1-updated";
+        
+        final BatchSaveResult result = GenericModels.saveAll(Arrays.asList(readOnly));
+        assertThat(result.saved(), is(0));
+        assertThat(result.rejected().size(), is(1));
+        assertThat(result.rejected().get(0).cause(),
+                   is(instanceOf(IllegalStateException.class)));
+        JPA.em().clear();
+        assertThat(find(a1).name, is("a1"));
+    }
+    
+    @Test
+    //管理下のエンティティは、カスケード保存の関連エンティティの変更も保存すること
+    public void testSaveAllCascade() throws Exception {
+        final TrackedEntity created = new TrackedEntity("t1", "memo");
+        created.sample = new SampleEntity("child");
+        created.save();
+        commit();
+        JPA.em().clear();
+        
+        final TrackedEntity loaded = JPA.em().find(TrackedEntity.class, created.id());
+        loaded.memo = "changed";
+        loaded.sample.name = "changed";
+        final BatchSaveResult result = GenericModels.saveAll(Arrays.asList(loaded));
+        assertThat(result.saved(), is(1));
+        assertThat(JPA.em().find(TrackedEntity.class, created.id()).memo, is("changed"));
+        assertThat(JPA.em().find(SampleEntity.class, created.sample.id()).name, is("changed"));
+    }
+    
+    @Test
+    //プール採番ではINSERT前にIDが払い出され、ブロック内で連番となること
+    public void testPooledId() throws Exception {
+        final PooledEntity first = new PooledEntity("p0");
+        JPA.em().persist(first);
+        assertThat(first.id(), is(not(nullValue())));
+        
+        final List<PooledEntity> entities = new ArrayList<PooledEntity>();
+        for (int i = 1; i < 25; i++) {
+            entities.add(new PooledEntity("p" + i));
+        }
+        GenericModels.saveAll(entities, 10);
+        for (int i = 0; i < entities.size(); i++) {
+            assertThat(entities.get(i).id(), is(first.id() + i + 1));
+        }
+        assertThat(PooledEntity.count(), is(25L));
+        //採番テーブルはブロック単位（10件）でのみ更新されること
+        final Number next = (Number) JPA.em()
+                                        .createNativeQuery("select next_val from hibernate_sequences where sequence_name = 'PooledEntity'")
+                                        .getSingleResult();
+        assertThat(next.longValue() > first.id() + 24, is(true));
+        assertThat((next.longValue() - first.id()) % 10, is(0L));
+    }
+    
+    @Test
+    //@Cached のエンティティは主キー検索がキャッシュされ、保存・無効化で除去されること
+    public void testCached() throws Exception {
+        final CachedEntity c1 = new CachedEntity("c1").save();
+        //同一トランザクション内で登録した行はキャッシュされないためコミットする
+        commit();
+        final EntityCache cache = EntityCache.of(CachedEntity.class);
+        assertThat(cache, is(not(nullValue())));
+        assertThat(EntityCache.of(SampleEntity.class), is(nullValue()));
+        cache.clear();
+        cache.resetStatistics();
+        
+        JPA.em().clear();
+        CachedEntity.findById(c1.id());
+        assertThat(cache.missCount(), is(1L));
+        JPA.em().clear();
+        final CachedEntity found = CachedEntity.findById(c1.id());
+        assertThat(cache.hitCount(), is(1L));
+        
+        //無効化でキャッシュから除去され、再取得時は無効化後の状態となること
+        found.disable();
+        assertThat(cache.getElementCountInMemory(), is(0L));
+        JPA.em().clear();
+        assertThat(CachedEntity.<CachedEntity> findById(c1.id()).isDisable(), is(true));
+        assertThat(cache.missCount(), is(2L));
+        //無効の行は保持されないこと
+        assertThat(cache.getElementCountInMemory(), is(0L));
+        JPA.em().clear();
+        CachedEntity.findById(c1.id());
+        assertThat(cache.missCount(), is(3L));
+        
+        //件数上限を超えると参照の古いものから破棄されること
+        final CachedEntity c2 = new CachedEntity("c2").save();
+        final CachedEntity c3 = new CachedEntity("c3").save();
+        final CachedEntity c4 = new CachedEntity("c4").save();
+        commit();
+        JPA.em().clear();
+        CachedEntity.findById(c2.id());
+        CachedEntity.findById(c3.id());
+        CachedEntity.findById(c4.id());
+        assertThat(cache.getElementCountInMemory(), is(2L));
+        assertThat(cache.evictionCount(), is(1L));
+        JPA.em().clear();
+        CachedEntity.findById(c2.id());
+        assertThat(cache.missCount(), is(7L));
+    }
+    
+    @Test
+    //楽観ロック競合時に読み直して再試行し、回数が集計されること
+    public void testSaveWithRetry() throws Exception {
+        commit();
+        final OptimisticRetry stats = OptimisticRetry.of(SampleEntity.class);
+        stats.resetStatistics();
+        final int[] calls = {0};
+        
+        //初回のみ他トランザクションが更新して競合させる
+        final SampleEntity saved = GenericModels.saveWithRetry(SampleEntity.class,
+                                                               a1.id(),
+                                                               new OptimisticRetry.Mutation<SampleEntity>() {
+            
+                                                                   @Override
+                                                                   public void apply(final SampleEntity entity) {
+                                                                       if (calls[0]++ == 0) {
+                                                                           updateConcurrently(entity);
+                                                                       }
+                                                                       entity.name = entity.name + "-retried";
+                                                                   }
+                                                               });
+        assertThat(calls[0], is(2));
+        assertThat(saved.name, is("concurrent-retried"));
+        assertThat(stats.conflictCount(), is(1L));
+        assertThat(stats.retryCount(), is(1L));
+        assertThat(stats.failureCount(), is(0L));
+        //呼び出し元のトランザクションは継続して利用できること
+        JPA.em().clear();
+        assertThat(find(a1).name, is("concurrent-retried"));
+        
+        //試行回数を超えた場合は例外となること
+        try {
+            GenericModels.saveWithRetry(SampleEntity.class,
+                                        a2.id(),
+                                        new OptimisticRetry.Mutation<SampleEntity>() {
+                
+                                            @Override
+                                            public void apply(final SampleEntity entity) {
+                                                updateConcurrently(entity);
+                                                entity.name = "lost";
+                                            }
+                                        },
+                                        2);
+            fail();
+        }
+        catch (final PersistenceException e) {}
+        assertThat(stats.conflictCount(), is(3L));
+        assertThat(stats.failureCount(), is(1L));
+    }
+    
+    @Test
+    //@ChangeTracked のエンティティは変更がなければ保存を省略し、変更カラムのみ更新すること
+    public void testChangeTracked() throws Exception {
+        final TrackedEntity created = new TrackedEntity("t1", "memo").save();
+        JPA.em().clear();
+        TrackedEntity.satisfiedCount = 0;
+        
+        final TrackedEntity loaded = JPA.em().find(TrackedEntity.class, created.id());
+        assertThat(loaded.changedFields().isEmpty(), is(true));
+        loaded.save();
+        assertThat(TrackedEntity.satisfiedCount, is(0));
+        assertThat(loaded.modifyDate(), is(nullValue()));
+        
+        loaded.name = "t2";
+        assertThat(loaded.changedFields(), is((Set<String>) new HashSet<String>(Arrays.asList("name"))));
+        loaded.save();
+        assertThat(TrackedEntity.satisfiedCount, is(1));
+        assertThat(loaded.modifyDate(), is(not(nullValue())));
+        assertThat(loaded.changedFields().isEmpty(), is(true));
+        
+        //変更カラムのみ更新する設定となっていること
+        final SessionFactoryImplementor factory = (SessionFactoryImplementor) GenericModels.session().getSessionFactory();
+        final AbstractEntityPersister persister = (AbstractEntityPersister) factory.getEntityPersister(TrackedEntity.class.getName());
+        assertThat(persister.getEntityMetamodel().isDynamicUpdate(), is(true));
+        
+        //対象外のエンティティ・新規エンティティ
+        final SampleEntity sample = find(a1);
+        assertThat(sample.changedFields().isEmpty(), is(true));
+        assertThat(new SampleEntity("new").changedFields(), is(nullValue()));
+    }
+    
+    @Test
+    //変更のないエンティティでも、カスケード保存の関連エンティティの変更は保存されること
+    public void testChangeTrackedCascade() throws Exception {
+        final TrackedEntity created = new TrackedEntity("t1", "memo");
+        created.sample = new SampleEntity("child");
+        created.save();
+        commit();
+        JPA.em().clear();
+        TrackedEntity.satisfiedCount = 0;
+        
+        final TrackedEntity loaded = JPA.em().find(TrackedEntity.class, created.id());
+        loaded.sample.name = "changed";
+        assertThat(loaded.changedFields().isEmpty(), is(true));
+        loaded.save();
+        assertThat(TrackedEntity.satisfiedCount, is(1));
+        //自身は変更がないため更新されないこと
+        assertThat(loaded.modifyDate(), is(nullValue()));
+        commit();
+        JPA.em().clear();
+        assertThat(JPA.em().find(SampleEntity.class, created.sample.id()).name, is("changed"));
+        
+        //関連エンティティにも変更がなければ省略すること
+        final TrackedEntity unchanged = JPA.em().find(TrackedEntity.class, created.id());
+        unchanged.save();
+        assertThat(TrackedEntity.satisfiedCount, is(1));
+    }
+    
+    @Test
+    //有効なエンティティを一定件数ごとにクリアしながら逐次読み込めること
+    public void testScroll() throws Exception {
+        final List<SampleEntity> entities = new ArrayList<SampleEntity>();
+        for (int i = 0; i < 120; i++) {
+            entities.add(new SampleEntity("s" + i));
+        }
+        GenericModels.saveAll(entities);
+        GenericModels.disableWhere(SampleEntity.class, "name like ?1", "s1%");
+        JPA.em().clear();
+        
+        final EntityCursor<SampleEntity> cursor = GenericModels.scroll(SampleEntity.class)
+                                                               .fetchSize(10)
+                                                               .clearEvery(25);
+        int maxManaged = 0;
+        for (final SampleEntity entity : cursor) {
+            assertThat(entity.isDisable(), is(false));
+            assertThat(JPA.em().contains(entity), is(true));
+            maxManaged = Math.max(maxManaged, GenericModels.session().getStatistics().getEntityCount());
+        }
+        //a1, a2, b1 と s1* 以外の s*（120 - 31件）
+        assertThat(cursor.count(), is(3 + 89));
+        assertThat(maxManaged, is(25));
+        
+        //条件指定・無効を含む場合
+        final EntityCursor<SampleEntity> disabled = GenericModels.scroll(SampleEntity.class, "name like ?1", "s1%")
+                                                                 .includeDisabled();
+        int count = 0;
+        while (disabled.hasNext()) {
+            assertThat(disabled.next().isDisable(), is(true));
+            count++;
+        }
+        assertThat(count, is(31));
+        
+        //途中で閉じた場合
+        final EntityCursor<SampleEntity> closed = GenericModels.scroll(SampleEntity.class);
+        closed.next();
+        closed.close();
+        assertThat(closed.hasNext(), is(false));
+    }
+    
+    @Test
+    //キーセットで前後のページを取得でき、無効の行を含まないこと
+    public void testKeysetPage() throws Exception {
+        final List<SampleEntity> entities = new ArrayList<SampleEntity>();
+        for (int i = 0; i < 20; i++) {
+            entities.add(new SampleEntity("k" + i));
+        }
+        GenericModels.saveAll(entities);
+        GenericModels.disableAll(SampleEntity.class, Arrays.asList(a2.id()));
+        //有効な行はa1, b1, k0〜k19の22件
+        
+        for (final KeysetPage.Order order : KeysetPage.Order.values()) {
+            final List<Long> expected = new ArrayList<Long>();
+            for (final SampleEntity entity : SampleEntity.<SampleEntity> findAll()) {
+                if (entity.isDisable() == false) {
+                    expected.add(entity.id());
+                }
+            }
+            //生成日時が同じ行はIDで並ぶため、昇順・降順はID順と一致する
+            Collections.sort(expected);
+            if (order == KeysetPage.Order.ID_DESC || order == KeysetPage.Order.CREATE_DATE_DESC) {
+                Collections.reverse(expected);
+            }
+            
+            //次ページ方向に最後まで
+            final List<KeysetPage<SampleEntity>> pages = new ArrayList<KeysetPage<SampleEntity>>();
+            KeysetPage<SampleEntity> page = GenericModels.firstPage(SampleEntity.class, order, 5);
+            assertThat(page.hasPrevious(), is(false));
+            pages.add(page);
+            while (page.hasNext()) {
+                page = GenericModels.page(SampleEntity.class, page.nextCursor(), 5);
+                pages.add(page);
+            }
+            assertThat(pages.size(), is(5));
+            assertThat(ids(pages), is(expected));
+            assertThat(page.items().size(), is(2));
+            
+            //前ページ方向に先頭まで
+            final List<KeysetPage<SampleEntity>> previous = new ArrayList<KeysetPage<SampleEntity>>();
+            previous.add(page);
+            while (page.hasPrevious()) {
+                page = GenericModels.page(SampleEntity.class, page.previousCursor(), 5);
+                previous.add(0, page);
+            }
+            assertThat(ids(previous), is(expected));
+            assertThat(page.items().size(), is(5));
+        }
+        
+        //不正なカーソル・別エンティティのカーソル
+        final String cursor = GenericModels.firstPage(SampleEntity.class, 5).nextCursor();
+        try {
+            GenericModels.page(TrackedEntity.class, cursor, 5);
+            fail();
+        }
+        catch (final IllegalArgumentException e) {}
+        try {
+            GenericModels.page(SampleEntity.class, "invalid", 5);
+            fail();
+        }
+        catch (final IllegalArgumentException e) {}
+    }
+    
+    @Test
+    //読み取り専用で読み込んだエンティティは保存・有効化・無効化できないこと
+    public void testReadOnly() throws Exception {
+        JPA.em().clear();
+        final SampleEntity readOnly = GenericModels.findByIdReadOnly(SampleEntity.class, a1.id());
+        assertThat(readOnly.isReadOnly(), is(true));
+        assertThat(GenericModels.findReadOnly(SampleEntity.class, "name like ?1", "a%").size(), is(2));
+        try {
+            readOnly.save();
+            fail();
+        }
+        catch (final IllegalStateException e) {}
+        try {
+            readOnly.disable();
+            fail();
+        }
+        catch (final IllegalStateException e) {}
+        assertThat(readOnly.isDisable(), is(false));
+        
+        //逐次読み込み（クリア時はフラッシュしない）
+        JPA.em().clear();
+        final EntityCursor<SampleEntity> cursor = GenericModels.scroll(SampleEntity.class).readOnly().clearEvery(1);
+        for (final SampleEntity entity : cursor) {
+            assertThat(entity.isReadOnly(), is(true));
+            assertThat(GenericModels.session().getStatistics().getEntityCount(), is(1));
+        }
+        assertThat(cursor.count(), is(3));
+        
+        //通常の読み込み
+        JPA.em().clear();
+        assertThat(find(a1).isReadOnly(), is(false));
+        assertThat(new SampleEntity("new").isReadOnly(), is(false));
+    }
+    
+    @Test
+    //読み取り専用検索では読み込み時点の値（スナップショット）を保持しないこと
+    //（メモリ・フラッシュ時間の比較は benchmark/ の ReadOnlyBenchmark で計測する）
+    public void testReadOnlySnapshot() throws Exception {
+        JPA.em().clear();
+        assertThat(JPA.em().createQuery("from SampleEntity", SampleEntity.class).getResultList().size(), is(3));
+        assertThat(snapshotCount(), is(3));
+        
+        JPA.em().clear();
+        assertThat(GenericModels.findReadOnly(SampleEntity.class, null).size(), is(3));
+        assertThat(snapshotCount(), is(0));
+    }
+    
+    @Test
+    //遅延保存は仕様確認のみその場で行い、キューからまとめて登録されること
+    public void testSaveLater() throws Exception {
+        commit();
+        WriteBehindQueue.flush();
+        WriteBehindQueue.resetStatistics();
+        for (int i = 0; i < 3; i++) {
+            final SampleEntity entity = new SampleEntity("w" + i);
+            entity.saveLater();
+            assertThat(entity.createDate(), is(not(nullValue())));
+        }
+        try {
+            new SampleEntity("").saveLater();
+            fail();
+        }
+        catch (final IllegalArgumentException e) {}
+        try {
+            a1.saveLater();
+            fail();
+        }
+        catch (final IllegalStateException e) {}
+        //カスケード保存の関連に登録済みのエンティティを含む場合は追加しないこと
+        final TrackedEntity referencing = new TrackedEntity("w-ref", null);
+        referencing.sample = a1;
+        try {
+            referencing.saveLater();
+            fail();
+        }
+        catch (final IllegalStateException e) {}
+        //新規のエンティティはまとめて登録されること
+        final TrackedEntity cascading = new TrackedEntity("w-new", null);
+        cascading.sample = new SampleEntity("w-child");
+        cascading.saveLater();
+        assertThat(WriteBehindQueue.enqueuedCount(), is(4L));
+        
+        WriteBehindQueue.flush();
+        assertThat(WriteBehindQueue.depth(), is(0));
+        assertThat(WriteBehindQueue.writtenCount(), is(4L));
+        assertThat(WriteBehindQueue.failedCount(), is(0L));
+        assertThat(WriteBehindQueue.flushLatency().count() > 0, is(true));
+        assertThat(SampleEntity.count("name like ?", "w%"), is(4L));
+    }
+    
+    //-------------------------------------
+    // テスト用処理
+    //-------------------------------------
+    
+    //トランザクションをコミットして再開
+    private void commit() {
+        JPA.em().getTransaction().commit();
+        JPA.em().getTransaction().begin();
+    }
+    
+    //別トランザクションで更新（楽観ロックバージョンを進める）
+    private void updateConcurrently(final SampleEntity entity) {
+        final EntityManager em = JPA.entityManagerFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.createQuery("update SampleEntity set name = ?1, version = version + 1 where id = ?2")
+              .setParameter(1, "concurrent")
+              .setParameter(2, entity.id())
+              .executeUpdate();
+            em.getTransaction().commit();
+        }
+        finally {
+            em.close();
+        }
+    }
+    
+    //ページ内のID一覧
+    private List<Long> ids(final List<KeysetPage<SampleEntity>> pages) {
+        final List<Long> ids = new ArrayList<Long>();
+        for (final KeysetPage<SampleEntity> page : pages) {
+            for (final SampleEntity entity : page.items()) {
+                ids.add(entity.id());
+            }
+        }
+        return ids;
+    }
+    
+    //ダーティチェック用のスナップショットを保持しているエンティティ数
+    private int snapshotCount() {
+        int count = 0;
+        final PersistenceContext context = ((SessionImplementor) GenericModels.session()).getPersistenceContext();
+        for (final Object entry : context.getEntityEntries().values()) {
+            if (((EntityEntry) entry).getLoadedState() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    //DBから再取得
+    private SampleEntity find(final SampleEntity entity) {
+        return JPA.em().find(SampleEntity.class, entity.id());
+    }
+    
+    //DB上の楽観ロックバージョン
+    private Long version(final SampleEntity entity) {
+        return (Long) JPA.em()
+                         .createQuery("select version from SampleEntity where id = ?1")
+                         .setParameter(1, entity.id())
+                         .getSingleResult();
+    }
+}
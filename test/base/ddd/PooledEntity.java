@@ -0,0 +1,27 @@
+package base.ddd;
+
+import javax.persistence.*;
+
+import org.hibernate.annotations.*;
+import org.hibernate.annotations.Parameter;
+
+/** プール採番テスト用エンティティ */
+@javax.persistence.Entity
+@GenericGenerator(name = GenericModels.ID_GENERATOR,
+                  strategy = "base.ddd.PooledIdGenerator",
+                  parameters = @Parameter(name = "increment_size", value = "10"))
+public class PooledEntity extends Entity<PooledEntity> {
+    
+    @Column(nullable = false)
+    public String name;
+    
+    protected PooledEntity() {}
+    
+    public PooledEntity(final String name) {
+        this.name = name;
+    }
+    
+    @Override
+    public void isSatisfied() {}
+    
+}
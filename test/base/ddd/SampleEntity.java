@@ -0,0 +1,27 @@
+package base.ddd;
+
+import static org.apache.commons.lang.StringUtils.*;
+
+import javax.persistence.*;
+
+/** GenericModelsテスト用エンティティ */
+@javax.persistence.Entity
+public class SampleEntity extends Entity<SampleEntity> {
+    
+    @Column(nullable = false)
+    public String name;
+    
+    protected SampleEntity() {}
+    
+    public SampleEntity(final String name) {
+        this.name = name;
+    }
+    
+    @Override
+    public void isSatisfied() {
+        if (isEmpty(name)) {
+            throw new IllegalArgumentException("入力してください。");
+        }
+    }
+    
+}
@@ -0,0 +1,33 @@
+package base.ddd;
+
+import javax.persistence.*;
+
+/** 変更追跡テスト用エンティティ */
+@javax.persistence.Entity
+@ChangeTracked
+public class TrackedEntity extends Entity<TrackedEntity> {
+    
+    //仕様確認の呼び出し回数
+    static int satisfiedCount = 0;
+    
+    @Column(nullable = false)
+    public String name;
+    
+    public String memo;
+    
+    @ManyToOne(cascade = CascadeType.ALL)
+    public SampleEntity sample;
+    
+    protected TrackedEntity() {}
+    
+    public TrackedEntity(final String name, final String memo) {
+        this.name = name;
+        this.memo = memo;
+    }
+    
+    @Override
+    public void isSatisfied() {
+        satisfiedCount++;
+    }
+    
+}
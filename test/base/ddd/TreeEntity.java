@@ -0,0 +1,30 @@
+package base.ddd;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+/** 関連を持つテスト用エンティティ */
+@javax.persistence.Entity
+public class TreeEntity extends Entity<TreeEntity> {
+    
+    @Column(nullable = false)
+    public String name;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    public TreeEntity parent;
+    
+    @OneToMany(mappedBy = "parent")
+    public List<TreeEntity> children = new ArrayList<TreeEntity>();
+    
+    protected TreeEntity() {}
+    
+    public TreeEntity(final String name, final TreeEntity parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+    
+    @Override
+    public void isSatisfied() {}
+    
+}
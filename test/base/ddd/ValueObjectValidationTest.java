@@ -2,16 +2,25 @@ package base.ddd;
 
 import static org.hamcrest.CoreMatchers.*;
 
+import java.io.*;
 import java.math.*;
+import java.util.*;
+
+import javassist.*;
 
 import javax.persistence.*;
 
+import org.apache.commons.lang3.builder.*;
+
 import org.hibernate.annotations.*;
 import org.joda.time.*;
 import org.junit.*;
 
+import play.*;
+import play.classloading.ApplicationClasses.ApplicationClass;
 import play.test.*;
 import base.ddd.ValueObjectValidation.FieldInfo;
+import base.plugins.*;
 
 public class ValueObjectValidationTest extends UnitTest {
     
@@ -45,6 +54,94 @@ public class ValueObjectValidationTest extends UnitTest {
                    is(false));
     }
     
+    @Test
+    //hashCode・toStringがリフレクション実装と一致すること
+    public void testHashCodeAndToString() throws Exception {
+        assertThat(name.hashCode(), is(HashCodeBuilder.reflectionHashCode(name)));
+        assertThat(name.hashCode(), is(new Name(firstName, lastName).hashCode()));
+        assertThat(new Name(null, null).hashCode(),
+                   is(HashCodeBuilder.reflectionHashCode(new Name(null, null))));
+        assertThat(name.toString(),
+                   is(ReflectionToStringBuilder.toString(name,
+                                                         ToStringStyle.SHORT_PREFIX_STYLE)));
+        assertThat(new Name(null, null).toString(),
+                   is("ValueObjectValidationTest.Name[firstName=<null>,lastName=<null>]"));
+    }
+    
+    @Test
+    //具象クラスにはエンハンサでフィールド比較が生成されること
+    public void testEnhanced() throws Exception {
+        assertThat(Name.class.getDeclaredMethod("fieldsEquals", Object.class),
+                   is(not(nullValue())));
+        assertThat(Name.class.getDeclaredMethod("fieldsHashCode"),
+                   is(not(nullValue())));
+        assertThat(Name.class.getDeclaredMethod("fieldsToString"),
+                   is(not(nullValue())));
+    }
+    
+    @Test
+    //対応型のみを持つ具象クラスにはエンハンサでバリデーションが生成されること
+    public void testEnhancedValidate() throws Exception {
+        assertThat(ValidationTestStringVo02.class.getDeclaredMethod("fieldsValidate"),
+                   is(not(nullValue())));
+        assertThat(BatchTestVo.class.getDeclaredMethod("fieldsValidate"),
+                   is(not(nullValue())));
+        //対応外の型（値オブジェクト）を持つ場合はリフレクション実装のまま
+        for (final java.lang.reflect.Method m : Name.class.getDeclaredMethods()) {
+            assertThat(m.getName(), is(not("fieldsValidate")));
+        }
+        
+        //生成した評価がリフレクション実装と同じ結果となること
+        for (final BatchTestVo vo : Arrays.asList(new BatchTestVo("ok", 1),
+                                                  new BatchTestVo("", 1),
+                                                  new BatchTestVo(null, 1),
+                                                  new BatchTestVo("toolong", 1),
+                                                  new BatchTestVo("ok", null))) {
+            assertThat(message(vo), is(reflectionMessage(vo)));
+        }
+    }
+    
+    @Test
+    //具象クラスを継承した具象クラスでも、サブクラスのフィールドを含めて比較・評価されること
+    public void testEnhancedInheritance() throws Exception {
+        final ChildTestVo vo = new ChildTestVo("A001", 1);
+        assertThat(vo.equals(new ChildTestVo("A001", 1)), is(true));
+        assertThat(vo.equals(new ChildTestVo("A001", 2)), is(false));
+        assertThat(vo.hashCode(), is(HashCodeBuilder.reflectionHashCode(vo)));
+        assertThat(vo.toString(),
+                   is(ReflectionToStringBuilder.toString(vo, ToStringStyle.SHORT_PREFIX_STYLE)));
+        for (final ChildTestVo child : Arrays.asList(vo,
+                                                     new ChildTestVo(null, 1),
+                                                     new ChildTestVo("A001", null))) {
+            assertThat(message(child), is(reflectionMessage(child)));
+        }
+    }
+    
+    @Test
+    //スーパークラスが先にエンハンスされていても、サブクラスに生成されること
+    public void testEnhancedAfterParent() throws Exception {
+        final ApplicationClass parent = Play.classes.getApplicationClass(ParentTestVo.class.getName());
+        assertThat(parent.enhancedByteCode, is(not(parent.javaByteCode)));
+        
+        final ApplicationClass child = new ApplicationClass(ChildTestVo.class.getName());
+        child.enhancedByteCode = Play.classes.getApplicationClass(ChildTestVo.class.getName()).javaByteCode;
+        new ValueObjectEnhancer() {
+            {
+                //エンハンス済みのスーパークラスを参照させる
+                classPool.insertClassPath(new ByteArrayClassPath(parent.name, parent.enhancedByteCode));
+            }
+        }.enhanceThisClass(child);
+        final CtClass ctClass = ClassPool.getDefault().makeClass(new ByteArrayInputStream(child.enhancedByteCode));
+        try {
+            for (final String name : Arrays.asList("fieldsEquals", "fieldsHashCode", "fieldsToString", "fieldsValidate")) {
+                assertThat(ctClass.getDeclaredMethod(name), is(not(nullValue())));
+            }
+        }
+        finally {
+            ctClass.detach();
+        }
+    }
+    
     //-------------------------------------
     // Field処理テスト
     //-------------------------------------
@@ -105,6 +202,19 @@ public class ValueObjectValidationTest extends UnitTest {
         assertThat(field.nullable(), is(false));
     }
     
+    @Test
+    //フィールド名の大文字小文字を区別しないこと
+    public void testFieldsIgnoreCase() throws Exception {
+        final ValidationTestStringVo02 vo = new ValidationTestStringVo02("test");
+        final FieldInfo field = vo.fields().get("VALUE");
+        assertThat(field, is(not(nullValue())));
+        assertThat(field.name(), is("value"));
+        assertThat(field.length(), is(4));
+        assertThat(field.object(), is((Object) vo));
+        //存在しないフィールドはnullとなること
+        assertThat(vo.fields().get("none"), is(nullValue()));
+    }
+    
     //-------------------------------------
     // Validation処理テスト
     //-------------------------------------
@@ -226,6 +336,159 @@ public class ValueObjectValidationTest extends UnitTest {
         new ValidationTestBooleanVo02(null);
     }
     
+    //-------------------------------------
+    // 一括バリデーションテスト
+    //-------------------------------------
+    
+    @Test
+    //例外とならず、すべての違反が入力順に返ること
+    public void testValidateAll() throws Exception {
+        final List<BatchTestVo> values = Arrays.asList(new BatchTestVo("ok", 1),
+                                                       new BatchTestVo(null, null),
+                                                       new BatchTestVo("toolong", 1));
+        final ValidationResult result = ValueObjectValidation.validateAll(values);
+        assertThat(result.isValid(), is(false));
+        assertThat(result.violations().size(), is(3));
+        assertThat(result.violations().get(0).object(), is((Object) values.get(1)));
+        assertThat(result.violations().get(0).field(), is("code"));
+        assertThat(result.violations().get(0).kind(), is(ValidationResult.Kind.REQUIRED));
+        assertThat(result.violations().get(1).field(), is("count"));
+        assertThat(result.violations().get(2).kind(), is(ValidationResult.Kind.TOO_LONG));
+        assertThat(result.violationsOf(values.get(0)).isEmpty(), is(true));
+        
+        //結果オブジェクトを再利用できること
+        assertThat(ValueObjectValidation.validateAll(values.subList(0, 1), false, result),
+                   is(sameInstance(result)));
+        assertThat(result.isValid(), is(true));
+    }
+    
+    @Test
+    //対応外の型のフィールドは例外とならず、違反として返ること
+    public void testValidateAllUnsupported() throws Exception {
+        final BatchTestVo invalid = new BatchTestVo(null, 1);
+        final ValidationResult result = ValueObjectValidation.validateAll(Arrays.asList(name, invalid));
+        assertThat(result.violations().size(), is(3));
+        assertThat(result.violationsOf(name).size(), is(2));
+        assertThat(result.violations().get(0).field(), is("firstName"));
+        assertThat(result.violations().get(0).kind(), is(ValidationResult.Kind.UNSUPPORTED));
+        assertThat(result.violations().get(1).field(), is("lastName"));
+        assertThat(result.violations().get(1).kind(), is(ValidationResult.Kind.UNSUPPORTED));
+        assertThat(result.violations().get(2).kind(), is(ValidationResult.Kind.REQUIRED));
+        
+        //個別のバリデーションは従来どおり例外となること
+        try {
+            new ValueObjectValidation(name).validate();
+            fail();
+        }
+        catch (final RuntimeException e) {
+            assertThat(e.getMessage().contains(FirstName.class.getName()), is(true));
+        }
+    }
+    
+    @Test
+    //並列評価でも逐次評価と同じ結果となること
+    public void testValidateAllParallel() throws Exception {
+        final List<BatchTestVo> values = new ArrayList<BatchTestVo>();
+        for (int i = 0; i < 10000; i++) {
+            values.add(i % 7 == 0 ? new BatchTestVo("toolong" + i, i) : new BatchTestVo("ok", i));
+        }
+        final ValidationResult sequential = ValueObjectValidation.validateAll(values, false);
+        final ValidationResult parallel = ValueObjectValidation.validateAll(values, true);
+        assertThat(parallel.violations().size(), is(sequential.violations().size()));
+        for (int i = 0; i < sequential.violations().size(); i++) {
+            assertThat(parallel.violations().get(i).object(),
+                       is(sequential.violations().get(i).object()));
+        }
+    }
+    
+    //-------------------------------------
+    // 不変値オブジェクトテスト
+    //-------------------------------------
+    
+    @Test
+    //ハッシュ値を一度だけ算出し、ハッシュ値の不一致で不一致と判定すること
+    public void testImmutableHashCode() throws Exception {
+        final ImmutableTestVo vo = new ImmutableTestVo("A001", 1);
+        final int hash = vo.hashCode();
+        assertThat(hash, is(HashCodeBuilder.reflectionHashCode(vo)));
+        assertThat(vo.equals(new ImmutableTestVo("A001", 1)), is(true));
+        assertThat(vo.equals(new ImmutableTestVo("A001", 2)), is(false));
+        assertThat(vo.equals(null), is(false));
+        
+        //算出後はフィールドを書き換えてもハッシュ値は変わらないこと
+        overwrite(vo, "count", 2);
+        assertThat(vo.hashCode(), is(hash));
+        //ハッシュ値が一致しないため同値と見なさないこと
+        assertThat(vo.equals(new ImmutableTestVo("A001", 2)), is(false));
+    }
+    
+    @Test
+    //バリデーションは一度成功すれば再評価しないこと
+    public void testImmutableValidate() throws Exception {
+        final ImmutableTestVo vo = new ImmutableTestVo("A001", 1);
+        vo.validate();
+        overwrite(vo, "code", null);
+        vo.validate();
+        
+        //失敗した場合は次回も評価すること
+        final ImmutableTestVo invalid = new ImmutableTestVo(null, 1);
+        for (int i = 0; i < 2; i++) {
+            try {
+                invalid.validate();
+                fail();
+            }
+            catch (final IllegalArgumentException e) {
+                assertThat(e.getMessage(), is(ValidationResult.Kind.REQUIRED.message()));
+            }
+        }
+    }
+    
+    @Test
+    //等価なインスタンスが1つに集約されること
+    public void testIntern() throws Exception {
+        final InternPool pool = InternPool.of(ImmutableTestVo.class);
+        pool.clear();
+        final ImmutableTestVo first = new ImmutableTestVo("A001", 1).intern();
+        final ImmutableTestVo second = new ImmutableTestVo("A001", 1).intern();
+        final ImmutableTestVo other = new ImmutableTestVo("A002", 1).intern();
+        assertThat(second, is(sameInstance(first)));
+        assertThat(other, is(not(sameInstance(first))));
+        assertThat(pool.hitCount(), is(1L));
+        assertThat(pool.missCount(), is(2L));
+        assertThat(pool.size(), is(2));
+        //同一クラスには同じプールが使われること
+        assertThat(InternPool.of(ImmutableTestVo.class), is(sameInstance(pool)));
+    }
+    
+    //バリデーションエラーメッセージ（エラーがなければnull）
+    private static String message(final ValueObject vo) {
+        try {
+            vo.validate();
+            return null;
+        }
+        catch (final IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+    
+    //リフレクション実装によるバリデーションエラーメッセージ（エラーがなければnull）
+    private static String reflectionMessage(final ValueObject vo) {
+        try {
+            new ValueObjectValidation(vo).validate();
+            return null;
+        }
+        catch (final IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+    
+    //finalフィールドの書き換え（不変性を前提とした動作の確認用）
+    private static void overwrite(final Object object, final String fieldName, final Object value) throws Exception {
+        final java.lang.reflect.Field field = object.getClass().getField(fieldName);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+    
     //-----------------------------------------
     // Equals テスト用クラス
     //-----------------------------------------
@@ -460,4 +723,58 @@ public class ValueObjectValidationTest extends UnitTest {
             validate();
         }
     }
+    
+    //---- 一括バリデーション --------------------
+    
+    /** 一括バリデーションテスト用VO */
+    //コンストラクタではバリデーションしない
+    static class BatchTestVo extends ValueObject {
+        @Column(nullable = false, length = 4)
+        public final String code;
+        @Column(nullable = false)
+        public final Integer count;
+        
+        public BatchTestVo(final String code, final Integer count) {
+            this.code = code;
+            this.count = count;
+        }
+    }
+    
+    //---- 継承 --------------------
+    
+    /** 継承テスト用VO（スーパークラス） */
+    static class ParentTestVo extends ValueObject {
+        @Column(nullable = false, length = 4)
+        public final String code;
+        
+        public ParentTestVo(final String code) {
+            this.code = code;
+        }
+    }
+    
+    /** 継承テスト用VO（サブクラス） */
+    static class ChildTestVo extends ParentTestVo {
+        @Column(nullable = false)
+        public final Integer count;
+        
+        public ChildTestVo(final String code, final Integer count) {
+            super(code);
+            this.count = count;
+        }
+    }
+    
+    //---- 不変値オブジェクト --------------------
+    
+    /** 不変値オブジェクトテスト用VO */
+    static class ImmutableTestVo extends ImmutableValueObject {
+        @Column(nullable = false, length = 4)
+        public final String code;
+        @Column(nullable = false)
+        public final Integer count;
+        
+        public ImmutableTestVo(final String code, final Integer count) {
+            this.code = code;
+            this.count = count;
+        }
+    }
 }
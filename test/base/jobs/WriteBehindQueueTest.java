@@ -0,0 +1,63 @@
+package base.jobs;
+
+import static org.apache.commons.lang.StringUtils.*;
+import static org.hamcrest.CoreMatchers.*;
+
+import org.junit.*;
+
+import play.test.*;
+import base.ddd.*;
+
+public class WriteBehindQueueTest extends UnitTest {
+    
+    @Before
+    public void before() {
+        Fixtures.deleteAllModels();
+        WriteBehindQueue.flush();
+        WriteBehindQueue.resetStatistics();
+    }
+    
+    @After
+    public void after() {
+        WriteBehindQueue.configure(WriteBehindQueue.DEFAULT_CAPACITY,
+                                   WriteBehindQueue.DEFAULT_BATCH_SIZE,
+                                   WriteBehindQueue.DEFAULT_OFFER_TIMEOUT_MILLIS);
+        WriteBehindQueue.flush();
+    }
+    
+    @Test
+    //キューが満杯の場合は待ち時間後に例外となること
+    public void testBackpressure() throws Exception {
+        WriteBehindQueue.configure(2, 1, 10);
+        assertThat(WriteBehindQueue.capacity(), is(2));
+        WriteBehindQueue.enqueue(new SampleEntity("q1"));
+        WriteBehindQueue.enqueue(new SampleEntity("q2"));
+        try {
+            WriteBehindQueue.enqueue(new SampleEntity("q3"));
+            fail();
+        }
+        catch (final IllegalStateException e) {}
+        assertThat(WriteBehindQueue.rejectedCount(), is(1L));
+        
+        //1件ずつのバッチで登録されること
+        WriteBehindQueue.flush();
+        assertThat(WriteBehindQueue.writtenCount(), is(2L));
+        assertThat(WriteBehindQueue.flushLatency().count(), is(2L));
+        assertThat(SampleEntity.count(), is(2L));
+    }
+    
+    @Test
+    //失敗したバッチは1件ずつ登録し直し、失敗したエンティティのみ破棄すること
+    public void testWriteFailure() throws Exception {
+        WriteBehindQueue.enqueue(new SampleEntity("f1"));
+        //カラム長を超える値（仕様確認を経ずに追加）
+        WriteBehindQueue.enqueue(new SampleEntity(repeat("x", 256)));
+        WriteBehindQueue.enqueue(new SampleEntity("f3"));
+        
+        assertThat(WriteBehindQueue.flush(), is(2));
+        assertThat(WriteBehindQueue.writtenCount(), is(2L));
+        assertThat(WriteBehindQueue.failedCount(), is(1L));
+        assertThat(SampleEntity.count(), is(2L));
+    }
+    
+}
@@ -0,0 +1,94 @@
+package base.metrics;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+import play.test.*;
+import base.ddd.*;
+import base.metrics.Metrics.Kind;
+
+public class MetricsTest extends UnitTest {
+    
+    @Before
+    public void before() {
+        Fixtures.deleteAllModels();
+        Metrics.reset();
+    }
+    
+    @After
+    public void after() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+    
+    @Test
+    //無効時は記録されないこと
+    public void testDisabled() throws Exception {
+        Metrics.setEnabled(false);
+        assertThat(Metrics.start(), is(0L));
+        new SampleEntity("a").save();
+        assertThat(Metrics.snapshot().isEmpty(), is(true));
+    }
+    
+    @Test
+    //有効時は保存・保存仕様確認の処理時間がクラスごとに記録されること
+    public void testSave() throws Exception {
+        Metrics.setEnabled(true);
+        new SampleEntity("a").save();
+        new SampleEntity("b").save();
+        
+        final Map<Kind, LatencyHistogram> histograms = Metrics.snapshot()
+                                                              .get(SampleEntity.class.getName());
+        assertThat(histograms.get(Kind.SAVE).count(), is(2L));
+        assertThat(histograms.get(Kind.SATISFY).count(), is(2L));
+        assertThat(histograms.get(Kind.SAVE).totalNanos() >= histograms.get(Kind.SATISFY)
+                                                                       .totalNanos(), is(true));
+        assertThat(histograms.containsKey(Kind.VALIDATE), is(false));
+    }
+    
+    @Test
+    //パーセンタイルがバケット上限値で近似されること
+    public void testHistogram() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+        assertThat(histogram.count(), is(100L));
+        assertThat(histogram.maxNanos(), is(1000000L));
+        assertThat(histogram.meanNanos(), is((99 * 1000L + 1000000L) / 100));
+        //1000ns は 512～1023ns のバケット
+        assertThat(histogram.percentileNanos(50), is(1023L));
+        assertThat(histogram.percentileNanos(99), is(1023L));
+        assertThat(histogram.percentileNanos(100), is(1000000L));
+    }
+    
+    @Test
+    //複数スレッドからの加算が合計されること
+    public void testStripedCounter() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(counter.sum(), is(80000L));
+    }
+    
+}
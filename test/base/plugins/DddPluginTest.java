@@ -0,0 +1,93 @@
+package base.plugins;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.util.*;
+
+import javax.persistence.*;
+
+import org.hibernate.ejb.*;
+import org.junit.*;
+
+import play.*;
+import play.db.*;
+import play.test.*;
+import base.ddd.*;
+
+public class DddPluginTest extends UnitTest {
+    
+    private Properties original;
+    
+    @Before
+    public void before() {
+        original = Play.configuration;
+    }
+    
+    @After
+    public void after() {
+        Play.configuration = original;
+    }
+    
+    @Test
+    //キャッシュ無効時は二次キャッシュ自体を無効とし、@Cached のエンティティがあっても起動できること
+    public void testCacheDisabled() {
+        final Properties configuration = configuration("false");
+        new DddPlugin().onConfigurationRead();
+        assertThat(configuration.getProperty("hibernate.cache.use_second_level_cache"), is("false"));
+        assertThat(configuration.getProperty("hibernate.cache.region.factory_class"), is(nullValue()));
+        
+        final EntityManagerFactory factory = buildEntityManagerFactory(configuration);
+        try {
+            assertThat(factory.isOpen(), is(true));
+        }
+        finally {
+            factory.close();
+        }
+    }
+    
+    @Test
+    //キャッシュ有効時はエンティティキャッシュを使用すること
+    public void testCacheEnabled() {
+        final Properties configuration = configuration("true");
+        new DddPlugin().onConfigurationRead();
+        assertThat(configuration.getProperty("hibernate.cache.use_second_level_cache"), is("true"));
+        assertThat(configuration.getProperty("hibernate.cache.region.factory_class"),
+                   is(EntityCacheRegionFactory.class.getName()));
+    }
+    
+    @Test
+    //他のキャッシュ実装を設定している場合は変更しないこと
+    public void testOtherCacheProvider() {
+        final Properties configuration = configuration("false");
+        configuration.setProperty("hibernate.cache.region.factory_class", "org.example.RegionFactory");
+        new DddPlugin().onConfigurationRead();
+        assertThat(configuration.getProperty("hibernate.cache.use_second_level_cache"), is(nullValue()));
+        assertThat(configuration.getProperty("hibernate.cache.region.factory_class"), is("org.example.RegionFactory"));
+    }
+    
+    //キャッシュ設定を除いた設定
+    private static Properties configuration(final String cacheEnabled) {
+        final Properties configuration = new Properties();
+        configuration.putAll(Play.configuration);
+        configuration.remove("hibernate.cache.region.factory_class");
+        configuration.remove("hibernate.cache.use_second_level_cache");
+        configuration.setProperty("playbase.cache.enabled", cacheEnabled);
+        Play.configuration = configuration;
+        return configuration;
+    }
+    
+    //JPAPluginと同様に、設定中の hibernate.* を適用してエンティティを登録する
+    private static EntityManagerFactory buildEntityManagerFactory(final Properties configuration) {
+        final Ejb3Configuration cfg = new Ejb3Configuration();
+        cfg.setDataSource(DB.datasource);
+        cfg.setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+        cfg.setProperty("javax.persistence.transaction", "RESOURCE_LOCAL");
+        for (final String key : configuration.stringPropertyNames()) {
+            if (key.startsWith("hibernate.")) {
+                cfg.setProperty(key, configuration.getProperty(key));
+            }
+        }
+        cfg.addAnnotatedClass(CachedEntity.class);
+        return cfg.buildEntityManagerFactory();
+    }
+}
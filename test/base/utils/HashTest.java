@@ -2,6 +2,13 @@ package base.utils;
 
 import static org.hamcrest.CoreMatchers.*;
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
 import org.junit.*;
 
 import play.test.*;
@@ -16,4 +23,167 @@ public class HashTest extends UnitTest {
         System.out.println(hashedStr);
     }
     
+    @Test
+    //既知のハッシュ値と一致すること
+    public void testGenerateKnownValues() {
+        assertThat(Hash.generate("test", HashAlgorithm.MD5),
+                   is("098f6bcd4621d373cade4e832627b4f6"));
+        assertThat(Hash.generate("test", HashAlgorithm.SHA256),
+                   is("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"));
+        //同一スレッドで繰り返し生成しても同じ値となること
+        assertThat(Hash.generate("test", HashAlgorithm.MD5),
+                   is(Hash.generate("test", HashAlgorithm.MD5)));
+    }
+    
+    @Test
+    //文字コードを指定できること
+    public void testGenerateCharset() throws Exception {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final Charset sjis = Charset.forName("Shift_JIS");
+        assertThat(Hash.generate("テスト", HashAlgorithm.SHA1, utf8),
+                   is(Hash.generate(new ByteArrayInputStream("テスト".getBytes(utf8)), HashAlgorithm.SHA1)));
+        assertThat(Hash.generate("テスト", HashAlgorithm.SHA1, utf8),
+                   is(not(Hash.generate("テスト", HashAlgorithm.SHA1, sjis))));
+    }
+    
+    @Test
+    //バイト配列で取得でき、16進数文字列と対応すること
+    public void testGenerateBytes() {
+        final byte[] hash = Hash.generateBytes("test", HashAlgorithm.SHA512);
+        assertThat(hash.length, is(64));
+        assertThat(Hash.toHexString(hash), is(Hash.generate("test", HashAlgorithm.SHA512)));
+    }
+    
+    @Test
+    //文字列と同じハッシュ値となること
+    public void testGenerateInputStream() throws Exception {
+        for (final HashAlgorithm algorithm : HashAlgorithm.values()) {
+            final InputStream in = new ByteArrayInputStream("test".getBytes());
+            assertThat(Hash.generate(in, algorithm),
+                       is(Hash.generate("test", algorithm)));
+        }
+    }
+    
+    @Test
+    //文字列と同じハッシュ値となり、バッファの位置が変わらないこと
+    public void testGenerateByteBuffer() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4);
+        buffer.put("test".getBytes()).flip();
+        assertThat(Hash.generate(buffer, HashAlgorithm.SHA256),
+                   is(Hash.generate("test", HashAlgorithm.SHA256)));
+        assertThat(buffer.remaining(), is(4));
+    }
+    
+    @Test
+    //文字列と同じハッシュ値となること
+    public void testGenerateChannel() throws Exception {
+        final ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream("test".getBytes()));
+        assertThat(Hash.generate(channel, HashAlgorithm.SHA1),
+                   is(Hash.generate("test", HashAlgorithm.SHA1)));
+    }
+    
+    @Test
+    //ストリームと同じハッシュ値となること
+    public void testGenerateFile() throws Exception {
+        final byte[] data = new byte[300 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final Path file = Files.createTempFile("hash", ".bin");
+        try {
+            Files.write(file, data);
+            assertThat(Hash.generate(file, HashAlgorithm.SHA512),
+                       is(Hash.generate(new ByteArrayInputStream(data), HashAlgorithm.SHA512)));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    //パスワードハッシュで照合できること
+    public void testPassword() throws Exception {
+        final String hashed = Hash.hashPassword("secret", 10000);
+        assertThat(hashed.startsWith("PBKDF2WithHmacSHA1$10000$"), is(true));
+        assertThat(Hash.verifyPassword("secret", hashed), is(true));
+        assertThat(Hash.verifyPassword("Secret", hashed), is(false));
+        //ソルトは毎回異なること
+        assertThat(Hash.hashPassword("secret", 10000), is(not(hashed)));
+        
+        //繰り返し回数の引き上げ要否
+        assertThat(Hash.needsRehash(hashed, 10000), is(false));
+        assertThat(Hash.needsRehash(hashed, 20000), is(true));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    //形式が正しくない場合は例外となること
+    public void testPasswordInvalidFormat() throws Exception {
+        Hash.verifyPassword("secret", "098f6bcd4621d373cade4e832627b4f6");
+    }
+    
+    @Test
+    //保存値のアルゴリズム・繰り返し回数・鍵長を書き換えた場合は照合せずに例外となること
+    public void testPasswordTampered() throws Exception {
+        final String[] parts = Hash.hashPassword("secret", 10000).split("\\$");
+        final String[] tampered = {
+                "PBKDF2WithHmacSHA512$10000$" + parts[2] + "$" + parts[3],
+                "PBKDF2WithHmacSHA1$" + (Hash.MAX_ITERATIONS + 1) + "$" + parts[2] + "$" + parts[3],
+                "PBKDF2WithHmacSHA1$99999999999$" + parts[2] + "$" + parts[3],
+                "PBKDF2WithHmacSHA1$1$" + parts[2] + "$" + parts[3],
+                "PBKDF2WithHmacSHA1$10000$" + parts[2] + "$" + parts[3] + parts[3]};
+        for (final String hashed : tampered) {
+            try {
+                Hash.verifyPassword("secret", hashed);
+                fail(hashed);
+            }
+            catch (final IllegalArgumentException e) {}
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    //繰り返し回数が下限未満の場合は例外となること
+    public void testPasswordTooFewIterations() throws Exception {
+        Hash.hashPassword("secret", Hash.MIN_ITERATIONS - 1);
+    }
+    
+    @Test
+    //1件ずつ生成した場合と同順・同値となること
+    public void testGenerateAll() throws Exception {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            values.add("テスト" + i);
+        }
+        //エンコードバッファの拡張
+        values.add(new String(new char[1000]).replace('\0', 'あ'));
+        
+        final List<String> serial = Hash.generateAll(values, HashAlgorithm.SHA256, utf8, false);
+        final List<String> parallel = Hash.generateAll(values, HashAlgorithm.SHA256, utf8, true);
+        assertThat(serial.size(), is(values.size()));
+        for (int i = 0; i < values.size(); i++) {
+            final String expected = Hash.generate(values.get(i), HashAlgorithm.SHA256, utf8);
+            assertThat(serial.get(i), is(expected));
+            assertThat(parallel.get(i), is(expected));
+        }
+        assertThat(Hash.generateAll(Arrays.asList("test"), HashAlgorithm.MD5),
+                   is(Arrays.asList(Hash.generate("test", HashAlgorithm.MD5))));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    //空文字が含まれる場合は例外となること
+    public void testGenerateAllEmpty() {
+        Hash.generateAll(Arrays.asList("test", ""), HashAlgorithm.MD5);
+    }
+    
+    @Test
+    //非同期でパスワードハッシュ生成・照合できること
+    public void testPasswordAsync() throws Exception {
+        final String hashed = Hash.hashPasswordAsync("secret", 10000).get();
+        assertThat(Hash.verifyPasswordAsync("secret", hashed).get(), is(true));
+        assertThat(Hash.verifyPasswordAsync("other", hashed).get(), is(false));
+        //停止後は作り直して実行すること
+        Hash.shutdown();
+        assertThat(Hash.verifyPasswordAsync("secret", hashed).get(), is(true));
+    }
+    
 }
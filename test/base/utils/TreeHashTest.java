@@ -0,0 +1,101 @@
+package base.utils;
+
+import static org.hamcrest.CoreMatchers.*;
+
+import java.nio.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+import org.junit.*;
+
+import play.test.*;
+import base.utils.Hash.HashAlgorithm;
+
+public class TreeHashTest extends UnitTest {
+    
+    private byte[] data;
+    
+    @Before
+    public void before() {
+        data = new byte[10 * 1024 + 123];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+    }
+    
+    @Test
+    //仕様どおりの形式で算出されること
+    public void testFormat() throws Exception {
+        final byte[] abc = "abcde".getBytes("US-ASCII");
+        final TreeHash hash = TreeHash.of(ByteBuffer.wrap(abc), HashAlgorithm.SHA256, 2);
+        assertThat(hash.chunkCount(), is(3));
+        
+        //leaf = H(0x00 || chunk)
+        final byte[] l0 = digest(new byte[]{0x00, 'a', 'b'});
+        final byte[] l1 = digest(new byte[]{0x00, 'c', 'd'});
+        final byte[] l2 = digest(new byte[]{0x00, 'e'});
+        assertThat(hash.chunk(0), is(Hash.toHexString(l0)));
+        assertThat(hash.chunk(2), is(Hash.toHexString(l2)));
+        //node = H(0x01 || left || right)、奇数個の末尾は繰り上げ
+        final byte[] n0 = digest(concat(new byte[]{0x01}, l0, l1));
+        final byte[] root = digest(concat(new byte[]{0x01}, n0, l2));
+        assertThat(hash.root(), is(Hash.toHexString(root)));
+    }
+    
+    @Test
+    //空の入力は空のチャンク1つとして算出されること
+    public void testEmpty() throws Exception {
+        final TreeHash hash = TreeHash.of(ByteBuffer.allocate(0), HashAlgorithm.MD5, 1024);
+        assertThat(hash.chunkCount(), is(1));
+        assertThat(hash.root(), is(Hash.toHexString(MessageDigest.getInstance("MD5")
+                                                                 .digest(new byte[]{0x00}))));
+    }
+    
+    @Test
+    //バッファとファイルで同じ値となり、バッファの位置が変わらないこと
+    public void testFile() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final TreeHash fromBuffer = TreeHash.of(buffer, HashAlgorithm.SHA1, 1024);
+        assertThat(buffer.position(), is(0));
+        assertThat(fromBuffer.chunkCount(), is(11));
+        
+        final Path file = Files.createTempFile("treehash", ".bin");
+        try {
+            Files.write(file, data);
+            final TreeHash fromFile = TreeHash.of(file, HashAlgorithm.SHA1, 1024);
+            assertThat(fromFile.root(), is(fromBuffer.root()));
+            assertThat(fromFile.chunks(), is(fromBuffer.chunks()));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+    
+    @Test
+    //変更のあったチャンクのみ特定できること
+    public void testChangedChunks() throws Exception {
+        final TreeHash before = TreeHash.of(ByteBuffer.wrap(data), HashAlgorithm.SHA256, 1024);
+        data[3000]++;
+        final byte[] appended = Arrays.copyOf(data, data.length + 2000);
+        final TreeHash after = TreeHash.of(ByteBuffer.wrap(appended), HashAlgorithm.SHA256, 1024);
+        assertThat(after.root(), is(not(before.root())));
+        assertThat(after.changedChunks(before), is(Arrays.asList(2, 10, 11, 12)));
+        assertThat(before.changedChunks(before).isEmpty(), is(true));
+    }
+    
+    //SHA-256
+    private static byte[] digest(final byte[] bytes) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+    
+    //バイト列の連結
+    private static byte[] concat(final byte[]... arrays) {
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (final byte[] array : arrays) {
+            buffer.put(array);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+    
+}
@@ -1,5 +1,7 @@
 package base.utils;
 
+import static org.hamcrest.CoreMatchers.*;
+
 import org.junit.*;
 
 import play.test.*;
@@ -14,6 +16,35 @@ public class ValidatorTest extends UnitTest {
         mustbeFailure(validator, "160002");
         mustbeFailure(validator, "16000022");
         mustbeFailure(validator, "160-0022");
+        mustbeFailure(validator, "１６０００２２");
+        mustbeFailure(validator, "1600022\n");
+    }
+    
+    @Test
+    //郵便番号の文字走査判定が正規表現と一致すること
+    public void testZipMatchesRegex() {
+        final Validator validator = new Validator.Zip();
+        for (final String value : new String[] { "1600022", "160002", "16000022",
+                "160-0022", "a600022", "160002a", "1600022\n", " 1600022" }) {
+            assertThat(value,
+                       validator.matches(value),
+                       is(value.matches(validator.regex())));
+        }
+    }
+    
+    @Test
+    //正規表現のみ定義した場合はコンパイル済みパターンで評価すること
+    public void testRegex() {
+        final Validator validator = new Validator() {
+            @Override
+            protected String regex() {
+                return "^[a-z]+$";
+            }
+        };
+        mustbeSuccess(validator, "abc");
+        mustbeFailure(validator, "ABC");
+        //パターンは再利用されること
+        assertThat(validator.pattern(), is(sameInstance(validator.pattern())));
     }
     
     //成功想定